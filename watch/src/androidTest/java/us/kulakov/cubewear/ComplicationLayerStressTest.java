@@ -0,0 +1,152 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link ComplicationLayer} from a {@link FakeComplicationDataSource} on a headless surface
+ * and checks that it only rasterizes and uploads what changed
+ */
+public class ComplicationLayerStressTest extends AndroidTestCase {
+    private static final String TAG = ComplicationLayerStressTest.class.getSimpleName();
+
+    private static final int SURFACE_SIZE = 320;
+    private static final int ENTRY_BYTES = ComplicationLayer.ENTRY_WIDTH * ComplicationLayer.ENTRY_HEIGHT * 4;
+    private static final long VSYNC_NANOS = 16666667L;
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private HeadlessGlSurface mSurface;
+    private GlResourceManager mResources;
+    private Bitmap mIcon;
+    private ComplicationLayer mLayer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSurface = new HeadlessGlSurface(new int[] {
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE
+        }, SURFACE_SIZE, SURFACE_SIZE);
+
+        DirectBufferPool bufferPool = new DirectBufferPool();
+        mResources = new GlResourceManager(bufferPool, new SharedGpuResourceCache(bufferPool));
+        mResources.onGlContextCreated();
+
+        mIcon = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+        mIcon.eraseColor(0xFF3080FF);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mLayer != null) {
+            mLayer.release();
+        }
+        mResources.release();
+        mSurface.release();
+        mIcon.recycle();
+        super.tearDown();
+    }
+
+    public void testMixedUpdateRates_rasterizeOnlyChanges() throws Exception {
+        // From every frame to hourly
+        long[] periods = { 16, 100, 250, 1000, 5000, 60000, HOUR_MILLIS, HOUR_MILLIS };
+        FakeComplicationDataSource source = new FakeComplicationDataSource(periods, mIcon);
+        ComplicationLayer layer = createLayer(source, ComplicationLayer.DEFAULT_BUDGET_BYTES);
+
+        int frames = 1800;
+        long drawCalls = GlStats.getDrawCalls();
+        long uploads = GlStats.getUploads();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            layer.draw(TimeUnit.NANOSECONDS.toMillis(i * VSYNC_NANOS), false);
+            mSurface.swapBuffers();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        drawCalls = GlStats.getDrawCalls() - drawCalls;
+        uploads = GlStats.getUploads() - uploads;
+        Log.i(TAG, String.format(Locale.US, "%d frames: %d changes, %d rasterized, %d uploads, %.1f us/frame",
+                frames, source.getChangeCount(), layer.getRasterizeCount(), uploads,
+                elapsedNanos / 1000.0 / frames));
+
+        assertEquals(source.getChangeCount(), layer.getRasterizeCount());
+        assertEquals(frames, drawCalls);
+        // The atlas clear, the index and vertex buffers on first bind and one sub-upload per change.
+        // Nothing moves, so the vertices are never uploaded again.
+        assertTrue(uploads <= 3 + layer.getRasterizeCount());
+        assertEquals(periods.length, layer.getEntryCount());
+        assertEquals(0, layer.getEvictionCount());
+    }
+
+    public void testModeSwitch_evictsLeastRecentlyUsed() throws Exception {
+        long[] periods = { HOUR_MILLIS, HOUR_MILLIS, HOUR_MILLIS, HOUR_MILLIS };
+        FakeComplicationDataSource source = new FakeComplicationDataSource(periods, mIcon);
+        ComplicationLayer layer = createLayer(source, 6 * ENTRY_BYTES);
+
+        layer.draw(0, false);
+        assertEquals(4, layer.getEntryCount());
+
+        // Ambient variants push out two interactive ones
+        layer.draw(1000, true);
+        assertEquals(6, layer.getEntryCount());
+        assertEquals(2, layer.getEvictionCount());
+        assertEquals(8, layer.getRasterizeCount());
+
+        layer.draw(2000, true);
+        assertEquals(8, layer.getRasterizeCount());
+
+        // Only the two evicted ones are drawn again, at the expense of ambient ones
+        layer.draw(3000, false);
+        assertEquals(6, layer.getEntryCount());
+        assertEquals(4, layer.getEvictionCount());
+        assertEquals(10, layer.getRasterizeCount());
+    }
+
+    public void testOverBudget_doesNotThrash() throws Exception {
+        long[] periods = { HOUR_MILLIS, HOUR_MILLIS, HOUR_MILLIS, HOUR_MILLIS };
+        FakeComplicationDataSource source = new FakeComplicationDataSource(periods, mIcon);
+        ComplicationLayer layer = createLayer(source, 2 * ENTRY_BYTES);
+
+        for (int i = 0; i < 100; i++) {
+            layer.draw(i * 16, false);
+        }
+
+        // Entries in use by the frame are never evicted, the ones that don't fit are skipped
+        assertEquals(2, layer.getEntryCount());
+        assertEquals(2, layer.getRasterizeCount());
+        assertEquals(0, layer.getEvictionCount());
+    }
+
+    public void testContextLoss_reuploadsWithoutRasterizing() throws Exception {
+        long[] periods = { HOUR_MILLIS, HOUR_MILLIS, HOUR_MILLIS };
+        FakeComplicationDataSource source = new FakeComplicationDataSource(periods, null);
+        ComplicationLayer layer = createLayer(source, ComplicationLayer.DEFAULT_BUDGET_BYTES);
+        layer.draw(0, false);
+
+        // A new share group stands in for a new context, everything gets uploaded again
+        mResources.onGlContextCreated();
+        long uploadedBytes = GlStats.getUploadedBytes();
+        layer.draw(16, false);
+        uploadedBytes = GlStats.getUploadedBytes() - uploadedBytes;
+
+        assertEquals(3, layer.getRasterizeCount());
+        assertTrue(uploadedBytes >= 3 * ENTRY_BYTES);
+    }
+
+    private ComplicationLayer createLayer(ComplicationDataSource source, int budgetBytes) {
+        mLayer = new ComplicationLayer(source, mResources, budgetBytes);
+        mLayer.setSurface(SURFACE_SIZE, SURFACE_SIZE);
+        for (int i = 0; i < source.getComplicationCount(); i++) {
+            mLayer.setPosition(i, SURFACE_SIZE / 2, (i + 1) * ComplicationLayer.ENTRY_HEIGHT);
+        }
+        return mLayer;
+    }
+}
@@ -0,0 +1,69 @@
+package us.kulakov.cubewear;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timeline of the lifecycle events a watch face engine sees over a day, for {@link DaySimulator}.
+ * Times are offsets from the start of the simulated day. The engine starts out invisible and
+ * interactive.
+ */
+public class DayScript {
+    public enum Event {
+        SHOW,
+        HIDE,
+        ENTER_AMBIENT,
+        EXIT_AMBIENT
+    }
+
+    private final List<Long> mTimes = new ArrayList<>();
+    private final List<Event> mEvents = new ArrayList<>();
+
+    /**
+     * Adds an event. Events at the same time happen in the order they were added.
+     * @param offsetMillis The time of the event since the start of the day
+     */
+    public DayScript add(long offsetMillis, Event event) {
+        int index = mTimes.size();
+        while (index > 0 && mTimes.get(index - 1) > offsetMillis) {
+            index--;
+        }
+        mTimes.add(index, offsetMillis);
+        mEvents.add(index, event);
+        return this;
+    }
+
+    public int size() {
+        return mEvents.size();
+    }
+
+    public long getTime(int index) {
+        return mTimes.get(index);
+    }
+
+    public Event getEvent(int index) {
+        return mEvents.get(index);
+    }
+
+    /**
+     * Asleep with the screen off until 7:00 and after 23:00. In between the watch sits in ambient
+     * mode, with a five second glance every six minutes.
+     */
+    public static DayScript typicalDay() {
+        long wakeUp = TimeUnit.HOURS.toMillis(7);
+        long bedTime = TimeUnit.HOURS.toMillis(23);
+        long glanceInterval = TimeUnit.MINUTES.toMillis(6);
+        long glanceDuration = TimeUnit.SECONDS.toMillis(5);
+
+        DayScript script = new DayScript();
+        script.add(wakeUp, Event.SHOW);
+        script.add(wakeUp, Event.ENTER_AMBIENT);
+        for (long glance = wakeUp + glanceInterval; glance + glanceDuration < bedTime; glance += glanceInterval) {
+            script.add(glance, Event.EXIT_AMBIENT);
+            script.add(glance + glanceDuration, Event.ENTER_AMBIENT);
+        }
+        script.add(bedTime, Event.HIDE);
+        return script;
+    }
+}
@@ -0,0 +1,69 @@
+package us.kulakov.cubewear;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulated day of the watch face on a headless pbuffer surface and logs what it cost
+ */
+public class DaySimulationTest extends AndroidTestCase {
+    private static final String TAG = DaySimulationTest.class.getSimpleName();
+
+    private static final int SURFACE_SIZE = 320;
+
+    private HeadlessGlSurface mSurface;
+    private CubeScene mScene;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        DirectBufferPool bufferPool = new DirectBufferPool();
+        GlResourceManager resources = new GlResourceManager(bufferPool, new SharedGpuResourceCache(bufferPool));
+        mScene = new CubeScene(new PlatformContext() {
+            @Override
+            public Context getContext() {
+                return DaySimulationTest.this.getContext();
+            }
+        }, resources);
+
+        mSurface = new HeadlessGlSurface(mScene.getPassPlanner().getEglConfigAttributes(),
+                SURFACE_SIZE, SURFACE_SIZE);
+        mScene.onGlContextCreated();
+        mScene.onGlSurfaceCreated(SURFACE_SIZE, SURFACE_SIZE);
+
+        // Upload everything up front, so one-off costs don't get extrapolated over the day
+        mScene.draw(System.currentTimeMillis(), System.nanoTime(), false, 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScene.release();
+        mSurface.release();
+        super.tearDown();
+    }
+
+    public void testTypicalDay() throws Exception {
+        DaySimulator simulator = new DaySimulator(mScene, new DaySimulator.FrameSink() {
+            @Override
+            public void onFrameRendered() {
+                mSurface.swapBuffers();
+            }
+        });
+
+        DaySimulator.Report report = simulator.run(DayScript.typicalDay(), System.currentTimeMillis());
+        Log.i(TAG, "Typical day:\n" + report);
+
+        assertEquals(TimeUnit.HOURS.toMillis(8), report.getVirtualMillis(DaySimulator.Mode.INVISIBLE));
+        assertEquals(0, report.getFrames(DaySimulator.Mode.INVISIBLE));
+        // One frame per vsync over 159 five second glances
+        assertTrue(report.getFrames(DaySimulator.Mode.INTERACTIVE) >= 159 * 299);
+        // One frame per minute tick, plus one per ambient transition
+        assertTrue(report.getFrames(DaySimulator.Mode.AMBIENT) >= 15 * 60);
+        assertTrue(report.getDrawCalls(DaySimulator.Mode.INTERACTIVE) > report.getFrames(DaySimulator.Mode.INTERACTIVE));
+        assertTrue("A day should simulate in seconds", report.getRealTimeNanos() < TimeUnit.MINUTES.toNanos(1));
+    }
+}
@@ -0,0 +1,341 @@
+package us.kulakov.cubewear;
+
+import android.os.Debug;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a {@link DayScript} against a {@link CubeScene} on a virtual clock. Frames are scheduled
+ * by the same {@link FrameScheduler} and {@link FramePacer} as in CubeWatchFace's engine, fed with
+ * the callbacks the engine would get: lifecycle changes from the script, a time tick every minute
+ * while visible, and vsyncs from a virtual Choreographer whenever something has a frame callback
+ * posted. Draw requests are merged until the next vsync, like Gles2WatchFaceService does.
+ *
+ * Rendering every frame of a day would take as long as the day, so only the first frames of each
+ * mode are actually drawn and measured. The per-frame cost of those is extrapolated to all frames
+ * of the mode, which puts a whole day at a few seconds of real time.
+ */
+public class DaySimulator {
+    public enum Mode {
+        INTERACTIVE,
+        AMBIENT,
+        INVISIBLE
+    }
+
+    /**
+     * Finishes a rendered frame, e.g. by swapping the headless surface
+     */
+    public interface FrameSink {
+        void onFrameRendered();
+    }
+
+    public static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final long VSYNC_NANOS = 16666667L;
+    private static final long TIME_TICK_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final CubeScene mScene;
+    private final FrameSink mFrameSink;
+    private int mMaxRenderedFramesPerMode = 600;
+
+    private final VirtualChoreographer mChoreographer = new VirtualChoreographer();
+    private final FramePacer mFramePacer = new FramePacer(mChoreographer);
+    private final VirtualEngine mEngine = new VirtualEngine();
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(mFramePacer, mEngine);
+
+    private ModeStats[] mStats;
+    private long mStartTimeMillis;
+    private long mStartTimeNanos;
+
+    public DaySimulator(CubeScene scene, FrameSink frameSink) {
+        mScene = scene;
+        mFrameSink = frameSink;
+    }
+
+    /**
+     * @param maxRenderedFramesPerMode How many frames of each mode to actually draw
+     */
+    public void setMaxRenderedFramesPerMode(int maxRenderedFramesPerMode) {
+        mMaxRenderedFramesPerMode = maxRenderedFramesPerMode;
+    }
+
+    /**
+     * Runs a full day. The scene's GL context must be current. The engine starts out invisible and
+     * interactive.
+     * @param script The lifecycle events of the day
+     * @param startTimeMillis Wall clock time of the start of the day
+     */
+    @SuppressWarnings("deprecation")
+    public Report run(DayScript script, long startTimeMillis) {
+        mStartTimeMillis = startTimeMillis;
+        // Keeps the virtual frame times ahead of anything the scene has drawn before
+        mStartTimeNanos = System.nanoTime();
+        mStats = new ModeStats[Mode.values().length];
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i] = new ModeStats();
+        }
+
+        long realStartNanos = System.nanoTime();
+        Debug.startAllocCounting();
+
+        long dayNanos = TimeUnit.MILLISECONDS.toNanos(DAY_MILLIS);
+        long time = 0;
+        long nextTick = TIME_TICK_NANOS;
+        int nextEvent = 0;
+        while (true) {
+            long eventTime = nextEvent < script.size()
+                    ? TimeUnit.MILLISECONDS.toNanos(script.getTime(nextEvent)) : Long.MAX_VALUE;
+            // Callbacks posted now run on the next vsync
+            long vsyncTime = mChoreographer.hasCallbacks() ? (time / VSYNC_NANOS + 1) * VSYNC_NANOS : Long.MAX_VALUE;
+            if (nextTick < time) {
+                nextTick = (time + TIME_TICK_NANOS - 1) / TIME_TICK_NANOS * TIME_TICK_NANOS;
+            }
+            long tickTime = mFrameScheduler.isVisible() ? nextTick : Long.MAX_VALUE;
+            long next = Math.min(eventTime, Math.min(vsyncTime, tickTime));
+            if (next >= dayNanos) {
+                mStats[getMode().ordinal()].mVirtualNanos += dayNanos - time;
+                break;
+            }
+            mStats[getMode().ordinal()].mVirtualNanos += next - time;
+            time = next;
+
+            // Script events first, then the time tick, then the vsync they all may have asked for
+            if (next == eventTime) {
+                if (dispatch(script.getEvent(nextEvent))) {
+                    mStats[getMode().ordinal()].mWakeUps++;
+                }
+                nextEvent++;
+            } else if (next == tickTime) {
+                mStats[getMode().ordinal()].mWakeUps++;
+                mFrameScheduler.onTimeTick();
+                nextTick += TIME_TICK_NANOS;
+            } else {
+                mStats[getMode().ordinal()].mWakeUps++;
+                mChoreographer.doFrame(mStartTimeNanos + time);
+            }
+        }
+
+        Debug.stopAllocCounting();
+        return new Report(mStats, mMaxRenderedFramesPerMode, System.nanoTime() - realStartNanos);
+    }
+
+    /**
+     * Delivers a lifecycle event the way the service does, only if it changes anything
+     * @return Whether the engine got a callback
+     */
+    private boolean dispatch(DayScript.Event event) {
+        switch (event) {
+            case SHOW:
+            case HIDE:
+                boolean visible = event == DayScript.Event.SHOW;
+                if (visible == mFrameScheduler.isVisible()) {
+                    return false;
+                }
+                mFrameScheduler.onVisibilityChanged(visible);
+                return true;
+            case ENTER_AMBIENT:
+            case EXIT_AMBIENT:
+                boolean inAmbientMode = event == DayScript.Event.ENTER_AMBIENT;
+                if (inAmbientMode == mFrameScheduler.isAmbient()) {
+                    return false;
+                }
+                mScene.onAmbientModeChanged(inAmbientMode);
+                mFrameScheduler.onAmbientModeChanged(inAmbientMode);
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Draws a frame the way CubeWatchFace's engine does, or only counts it once the mode has had
+     * its share of rendered frames
+     * @param vsyncNanos The vsync the frame is drawn on
+     */
+    @SuppressWarnings("deprecation")
+    private void drawFrame(long vsyncNanos) {
+        Mode mode = getMode();
+        ModeStats stats = mStats[mode.ordinal()];
+        stats.mFrames++;
+        long frameTimeNanos = mFrameScheduler.getFrameTimeNanos(vsyncNanos);
+        if (stats.mRenderedFrames < mMaxRenderedFramesPerMode) {
+            long drawCalls = GlStats.getDrawCalls();
+            long uploads = GlStats.getUploads();
+            long uploadedBytes = GlStats.getUploadedBytes();
+            int allocations = Debug.getThreadAllocCount();
+            int allocatedBytes = Debug.getThreadAllocSize();
+
+            mScene.draw(mStartTimeMillis + TimeUnit.NANOSECONDS.toMillis(frameTimeNanos - mStartTimeNanos),
+                    frameTimeNanos, mode == Mode.AMBIENT, mFramePacer.getMissedVsyncCount());
+            mFrameSink.onFrameRendered();
+
+            stats.mRenderedFrames++;
+            stats.mDrawCalls += GlStats.getDrawCalls() - drawCalls;
+            stats.mUploads += GlStats.getUploads() - uploads;
+            stats.mUploadedBytes += GlStats.getUploadedBytes() - uploadedBytes;
+            stats.mAllocations += Debug.getThreadAllocCount() - allocations;
+            stats.mAllocatedBytes += Debug.getThreadAllocSize() - allocatedBytes;
+        }
+        mFrameScheduler.onFrameDrawn();
+    }
+
+    private Mode getMode() {
+        if (!mFrameScheduler.isVisible()) {
+            return Mode.INVISIBLE;
+        }
+        return mFrameScheduler.isAmbient() ? Mode.AMBIENT : Mode.INTERACTIVE;
+    }
+
+    /**
+     * Runs the frame callbacks posted before a vsync, in order, when the simulation reaches it
+     */
+    private static final class VirtualChoreographer implements FramePacer.VsyncSource {
+        private final List<Choreographer.FrameCallback> mCallbacks = new ArrayList<>();
+        private final List<Choreographer.FrameCallback> mRunning = new ArrayList<>();
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            mCallbacks.add(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            while (mCallbacks.remove(callback)) {
+            }
+        }
+
+        boolean hasCallbacks() {
+            return !mCallbacks.isEmpty();
+        }
+
+        void doFrame(long frameTimeNanos) {
+            mRunning.addAll(mCallbacks);
+            mCallbacks.clear();
+            for (int i = 0; i < mRunning.size(); i++) {
+                mRunning.get(i).doFrame(frameTimeNanos);
+            }
+            mRunning.clear();
+        }
+    }
+
+    /**
+     * Stands in for the engine's invalidate(): one draw on the next vsync, however many requests
+     */
+    private final class VirtualEngine implements FrameScheduler.Host, Choreographer.FrameCallback {
+        private boolean mDrawRequested = false;
+
+        @Override
+        public void invalidate() {
+            if (!mDrawRequested) {
+                mDrawRequested = true;
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDrawRequested = false;
+            drawFrame(frameTimeNanos);
+        }
+    }
+
+    private static final class ModeStats {
+        long mVirtualNanos;
+        long mFrames;
+        long mWakeUps;
+        long mRenderedFrames;
+        // Measured over the rendered frames only
+        long mDrawCalls;
+        long mUploads;
+        long mUploadedBytes;
+        long mAllocations;
+        long mAllocatedBytes;
+
+        long extrapolate(long measured) {
+            return mRenderedFrames == 0 ? 0 : measured * mFrames / mRenderedFrames;
+        }
+    }
+
+    /**
+     * The cost of a simulated day, per mode. Draw calls, uploads and allocations are extrapolated
+     * from the frames that were actually rendered.
+     */
+    public static class Report {
+        private final ModeStats[] mStats;
+        private final int mMaxRenderedFramesPerMode;
+        private final long mRealTimeNanos;
+
+        Report(ModeStats[] stats, int maxRenderedFramesPerMode, long realTimeNanos) {
+            mStats = stats;
+            mMaxRenderedFramesPerMode = maxRenderedFramesPerMode;
+            mRealTimeNanos = realTimeNanos;
+        }
+
+        public long getFrames(Mode mode) {
+            return mStats[mode.ordinal()].mFrames;
+        }
+
+        public long getRenderedFrames(Mode mode) {
+            return mStats[mode.ordinal()].mRenderedFrames;
+        }
+
+        public long getWakeUps(Mode mode) {
+            return mStats[mode.ordinal()].mWakeUps;
+        }
+
+        public long getVirtualMillis(Mode mode) {
+            return TimeUnit.NANOSECONDS.toMillis(mStats[mode.ordinal()].mVirtualNanos);
+        }
+
+        public long getDrawCalls(Mode mode) {
+            ModeStats stats = mStats[mode.ordinal()];
+            return stats.extrapolate(stats.mDrawCalls);
+        }
+
+        public long getUploads(Mode mode) {
+            ModeStats stats = mStats[mode.ordinal()];
+            return stats.extrapolate(stats.mUploads);
+        }
+
+        public long getUploadedBytes(Mode mode) {
+            ModeStats stats = mStats[mode.ordinal()];
+            return stats.extrapolate(stats.mUploadedBytes);
+        }
+
+        public long getAllocations(Mode mode) {
+            ModeStats stats = mStats[mode.ordinal()];
+            return stats.extrapolate(stats.mAllocations);
+        }
+
+        public long getAllocatedBytes(Mode mode) {
+            ModeStats stats = mStats[mode.ordinal()];
+            return stats.extrapolate(stats.mAllocatedBytes);
+        }
+
+        public long getRealTimeNanos() {
+            return mRealTimeNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "Simulated day in %.2f s\n", mRealTimeNanos / 1e9));
+            builder.append(String.format(Locale.US,
+                    "Draws, uploads and allocations extrapolated from the first %d rendered frames per mode\n",
+                    mMaxRenderedFramesPerMode));
+            builder.append(String.format(Locale.US, "%-12s %8s %9s %9s %9s %10s %8s %12s %12s %12s\n",
+                    "mode", "hours", "frames", "rendered", "wake-ups", "draws", "uploads", "upload B",
+                    "allocs", "alloc B"));
+            for (Mode mode : Mode.values()) {
+                builder.append(String.format(Locale.US, "%-12s %8.2f %9d %9d %9d %10d %8d %12d %12d %12d\n",
+                        mode, getVirtualMillis(mode) / 3600000.0, getFrames(mode), getRenderedFrames(mode),
+                        getWakeUps(mode), getDrawCalls(mode), getUploads(mode), getUploadedBytes(mode),
+                        getAllocations(mode), getAllocatedBytes(mode)));
+            }
+            return builder.toString();
+        }
+    }
+}
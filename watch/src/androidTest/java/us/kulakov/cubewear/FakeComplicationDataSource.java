@@ -0,0 +1,73 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+
+/**
+ * Complications that each count up at their own fixed rate, for stress testing
+ * {@link ComplicationLayer}. Complication i changes every periodsMillis[i] of the time passed to
+ * {@link #update(long)}, and shows the number of periods so far.
+ */
+public class FakeComplicationDataSource implements ComplicationDataSource {
+    private final long[] mPeriodsMillis;
+    private final Bitmap mIcon;
+    private final int[] mVersions;
+    private final StringBuilder[] mTexts;
+    private long mChangeCount = 0;
+
+    /**
+     * @param periodsMillis How often each complication changes
+     * @param icon The icon all complications show, or null
+     */
+    public FakeComplicationDataSource(long[] periodsMillis, @Nullable Bitmap icon) {
+        mPeriodsMillis = periodsMillis;
+        mIcon = icon;
+        mVersions = new int[periodsMillis.length];
+        mTexts = new StringBuilder[periodsMillis.length];
+        for (int i = 0; i < mTexts.length; i++) {
+            mVersions[i] = -1;
+            mTexts[i] = new StringBuilder();
+        }
+    }
+
+    /**
+     * @return How many times any complication has changed
+     */
+    public long getChangeCount() {
+        return mChangeCount;
+    }
+
+    @Override
+    public int getComplicationCount() {
+        return mPeriodsMillis.length;
+    }
+
+    @Override
+    public void update(long timeMillis) {
+        for (int i = 0; i < mPeriodsMillis.length; i++) {
+            int version = (int) (timeMillis / mPeriodsMillis[i]);
+            if (version != mVersions[i]) {
+                mVersions[i] = version;
+                mTexts[i].setLength(0);
+                mTexts[i].append(version);
+                mChangeCount++;
+            }
+        }
+    }
+
+    @Override
+    public int getVersion(int complicationId) {
+        return mVersions[complicationId];
+    }
+
+    @Nullable
+    @Override
+    public Bitmap getIcon(int complicationId) {
+        return mIcon;
+    }
+
+    @Override
+    public CharSequence getText(int complicationId) {
+        return mTexts[complicationId];
+    }
+}
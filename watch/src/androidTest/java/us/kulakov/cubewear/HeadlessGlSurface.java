@@ -0,0 +1,90 @@
+package us.kulakov.cubewear;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+
+import java.util.Arrays;
+
+/**
+ * A GLES 2 context on a pbuffer surface, for rendering tests without a window
+ */
+public class HeadlessGlSurface {
+    private final EGLDisplay mDisplay;
+    private final EGLContext mContext;
+    private final EGLSurface mSurface;
+    private final EglShareContext mShareContext;
+
+    /**
+     * Creates the context and makes it current
+     * @param configAttributes EGL config attributes, e.g. from
+     *                         {@link RenderPassPlanner#getEglConfigAttributes()}
+     */
+    public HeadlessGlSurface(int[] configAttributes, int width, int height) {
+        this(configAttributes, width, height, null);
+    }
+
+    /**
+     * Creates the context and makes it current
+     * @param configAttributes EGL config attributes, e.g. from
+     *                         {@link RenderPassPlanner#getEglConfigAttributes()}
+     * @param shareContext Creates the context sharing GL objects, as the engine does, or null
+     */
+    public HeadlessGlSurface(int[] configAttributes, int width, int height, EglShareContext shareContext) {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("eglInitialize failed");
+        }
+
+        // The given config, on a pbuffer instead of a window
+        int[] attributes = Arrays.copyOf(configAttributes, configAttributes.length + 2);
+        attributes[configAttributes.length - 1] = EGL14.EGL_SURFACE_TYPE;
+        attributes[configAttributes.length] = EGL14.EGL_PBUFFER_BIT;
+        attributes[configAttributes.length + 1] = EGL14.EGL_NONE;
+
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, configs.length, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("eglChooseConfig failed");
+        }
+
+        if (shareContext != null) {
+            mContext = shareContext.createContext(mDisplay, configs[0]);
+            if (mContext == null) {
+                throw new RuntimeException("Unable to create a shared context");
+            }
+        } else {
+            mContext = EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+                    new int[] { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE }, 0);
+        }
+        mShareContext = shareContext;
+        mSurface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0],
+                new int[] { EGL14.EGL_WIDTH, width, EGL14.EGL_HEIGHT, height, EGL14.EGL_NONE }, 0);
+        makeCurrent();
+    }
+
+    public void makeCurrent() {
+        if (!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    public void swapBuffers() {
+        EGL14.eglSwapBuffers(mDisplay, mSurface);
+    }
+
+    public void release() {
+        EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(mDisplay, mSurface);
+        EGL14.eglDestroyContext(mDisplay, mContext);
+        // Like Gles2WatchFaceService, the root context holds its own reference on the display
+        EGL14.eglTerminate(mDisplay);
+        if (mShareContext != null) {
+            mShareContext.release();
+        }
+    }
+}
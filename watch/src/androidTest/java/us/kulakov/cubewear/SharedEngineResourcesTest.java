@@ -0,0 +1,116 @@
+package us.kulakov.cubewear;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates engine contexts through {@link EglShareContext} the way CubeWatchFace does, and checks
+ * that an engine sharing with another one, or replacing it, doesn't link or upload anything the
+ * other one already did
+ */
+public class SharedEngineResourcesTest extends AndroidTestCase {
+    private static final int SURFACE_SIZE = 320;
+
+    private DirectBufferPool mBufferPool;
+    private SharedGpuResourceCache mCache;
+    private EglShareContext mShareContext;
+    private final List<TestEngine> mEngines = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBufferPool = new DirectBufferPool();
+        mCache = new SharedGpuResourceCache(mBufferPool);
+        mShareContext = new EglShareContext(mCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (TestEngine engine : mEngines) {
+            engine.release();
+        }
+        mEngines.clear();
+        mShareContext.destroyIfUnused();
+        super.tearDown();
+    }
+
+    public void testSecondEngine_skipsLinkAndUpload() throws Exception {
+        createEngine(true).drawFrame();
+
+        long links = GlStats.getProgramLinks();
+        long sharedUploads = GlStats.getUploads();
+        createEngine(true).drawFrame();
+        links = GlStats.getProgramLinks() - links;
+        sharedUploads = GlStats.getUploads() - sharedUploads;
+
+        long unsharedLinks = GlStats.getProgramLinks();
+        long unsharedUploads = GlStats.getUploads();
+        createEngine(false).drawFrame();
+        unsharedLinks = GlStats.getProgramLinks() - unsharedLinks;
+        unsharedUploads = GlStats.getUploads() - unsharedUploads;
+
+        assertEquals(0, links);
+        assertTrue(unsharedLinks > 0);
+        // Only the engine's own streamed buffers and textures are uploaded
+        assertTrue(sharedUploads < unsharedUploads);
+    }
+
+    public void testReplacedEngine_reusesWithinGracePeriod() throws Exception {
+        TestEngine preview = createEngine(true);
+        preview.drawFrame();
+        // Terminates the display the preview initialized, the root context keeps its own
+        preview.release();
+        int cached = mCache.size();
+
+        long links = GlStats.getProgramLinks();
+        createEngine(true).drawFrame();
+        links = GlStats.getProgramLinks() - links;
+
+        assertEquals(0, links);
+        assertEquals(cached, mCache.size());
+    }
+
+    private TestEngine createEngine(boolean shared) {
+        TestEngine engine = new TestEngine(shared);
+        mEngines.add(engine);
+        return engine;
+    }
+
+    private class TestEngine {
+        final HeadlessGlSurface mSurface;
+        final CubeScene mScene;
+        boolean mReleased = false;
+
+        TestEngine(boolean shared) {
+            mScene = new CubeScene(new PlatformContext() {
+                @Override
+                public Context getContext() {
+                    return SharedEngineResourcesTest.this.getContext();
+                }
+            }, new GlResourceManager(mBufferPool, mCache));
+            mSurface = new HeadlessGlSurface(mScene.getPassPlanner().getEglConfigAttributes(),
+                    SURFACE_SIZE, SURFACE_SIZE, shared ? mShareContext : null);
+            mScene.onGlContextCreated(shared ? mShareContext.getShareGroup() : null);
+            mScene.onGlSurfaceCreated(SURFACE_SIZE, SURFACE_SIZE);
+        }
+
+        void drawFrame() {
+            mSurface.makeCurrent();
+            mScene.draw(System.currentTimeMillis(), System.nanoTime(), false, 0);
+            mSurface.swapBuffers();
+        }
+
+        void release() {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mSurface.makeCurrent();
+            mScene.release();
+            mSurface.release();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package us.kulakov.cubewear;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs rectangles into a fixed size atlas, in shelves: rows of rectangles sharing a height.
+ *
+ * A rectangle goes into the existing shelf that wastes the least height and still has a wide
+ * enough free span, or onto a new shelf stacked on top of the others. Freeing a rectangle gives
+ * its span back to the shelf, so entries of similar sizes coming and going reuse the same space
+ * without repacking anything. Plain Java, so it can be tested off the device.
+ */
+public class AtlasAllocator {
+    /**
+     * A rectangle in the atlas. The owner picks the size, the allocator the position.
+     */
+    public static final class Region {
+        private final int mWidth;
+        private final int mHeight;
+        private int mX = 0;
+        private int mY = 0;
+        private Shelf mShelf = null;
+
+        public Region(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public int getX() {
+            return mX;
+        }
+
+        public int getY() {
+            return mY;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public boolean isAllocated() {
+            return mShelf != null;
+        }
+    }
+
+    private static final class Shelf {
+        final int mY;
+        final int mHeight;
+        // Free spans as [start, end) pairs, sorted by x
+        int[] mSpans = new int[8];
+        int mSpanCount = 0;
+        int mRegionCount = 0;
+
+        Shelf(int y, int height, int width) {
+            mY = y;
+            mHeight = height;
+            addSpan(0, 0, width);
+        }
+
+        int findSpan(int width) {
+            for (int i = 0; i < mSpanCount; i++) {
+                if (mSpans[i * 2 + 1] - mSpans[i * 2] >= width) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int take(int span, int width) {
+            int x = mSpans[span * 2];
+            mSpans[span * 2] += width;
+            if (mSpans[span * 2] == mSpans[span * 2 + 1]) {
+                removeSpan(span);
+            }
+            mRegionCount++;
+            return x;
+        }
+
+        void give(int x, int width) {
+            int end = x + width;
+            int index = 0;
+            while (index < mSpanCount && mSpans[index * 2] < x) {
+                index++;
+            }
+            boolean joinsPrevious = index > 0 && mSpans[index * 2 - 1] == x;
+            boolean joinsNext = index < mSpanCount && mSpans[index * 2] == end;
+            if (joinsPrevious && joinsNext) {
+                mSpans[index * 2 - 1] = mSpans[index * 2 + 1];
+                removeSpan(index);
+            } else if (joinsPrevious) {
+                mSpans[index * 2 - 1] = end;
+            } else if (joinsNext) {
+                mSpans[index * 2] = x;
+            } else {
+                addSpan(index, x, end);
+            }
+            mRegionCount--;
+        }
+
+        private void addSpan(int index, int start, int end) {
+            if (mSpanCount * 2 == mSpans.length) {
+                int[] spans = new int[mSpans.length * 2];
+                System.arraycopy(mSpans, 0, spans, 0, mSpans.length);
+                mSpans = spans;
+            }
+            System.arraycopy(mSpans, index * 2, mSpans, index * 2 + 2, (mSpanCount - index) * 2);
+            mSpans[index * 2] = start;
+            mSpans[index * 2 + 1] = end;
+            mSpanCount++;
+        }
+
+        private void removeSpan(int index) {
+            System.arraycopy(mSpans, index * 2 + 2, mSpans, index * 2, (mSpanCount - index - 1) * 2);
+            mSpanCount--;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSpacing;
+    private final List<Shelf> mShelves = new ArrayList<>();
+    private int mShelvesTop = 0;
+    private int mRegionCount = 0;
+
+    /**
+     * @param width The width of the atlas
+     * @param height The height of the atlas
+     * @param spacing Empty pixels to keep to the right of and above every rectangle
+     */
+    public AtlasAllocator(int width, int height, int spacing) {
+        mWidth = width;
+        mHeight = height;
+        mSpacing = spacing;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The number of rectangles currently allocated
+     */
+    public int getRegionCount() {
+        return mRegionCount;
+    }
+
+    /**
+     * Finds a place for the region
+     * @return Whether it fit. If not, the caller can free other regions and try again.
+     */
+    public boolean allocate(Region region) {
+        if (region.isAllocated()) {
+            throw new IllegalArgumentException("Region is already allocated");
+        }
+        int width = region.mWidth + mSpacing;
+        int height = region.mHeight + mSpacing;
+
+        Shelf best = null;
+        int bestSpan = -1;
+        for (int i = 0; i < mShelves.size(); i++) {
+            Shelf shelf = mShelves.get(i);
+            if (shelf.mHeight < height || (best != null && shelf.mHeight >= best.mHeight)) {
+                continue;
+            }
+            int span = shelf.findSpan(width);
+            if (span >= 0) {
+                best = shelf;
+                bestSpan = span;
+            }
+        }
+
+        // Rather than parking a short rectangle on a much taller shelf, start a shelf of its own
+        boolean fitsNewShelf = width <= mWidth && mShelvesTop + height <= mHeight;
+        if (fitsNewShelf && (best == null || best.mHeight - height > height / 2)) {
+            best = new Shelf(mShelvesTop, height, mWidth);
+            bestSpan = 0;
+            mShelves.add(best);
+            mShelvesTop += height;
+        }
+        if (best == null) {
+            return false;
+        }
+
+        region.mX = best.take(bestSpan, width);
+        region.mY = best.mY;
+        region.mShelf = best;
+        mRegionCount++;
+        return true;
+    }
+
+    /**
+     * Gives the region's space back. Freeing a region that isn't allocated does nothing.
+     */
+    public void free(Region region) {
+        Shelf shelf = region.mShelf;
+        if (shelf == null) {
+            return;
+        }
+        shelf.give(region.mX, region.mWidth + mSpacing);
+        region.mShelf = null;
+        mRegionCount--;
+
+        // Empty shelves at the top go away, so their height can be split up differently
+        while (!mShelves.isEmpty()) {
+            Shelf top = mShelves.get(mShelves.size() - 1);
+            if (top.mRegionCount > 0) {
+                break;
+            }
+            mShelves.remove(mShelves.size() - 1);
+            mShelvesTop = top.mY;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+
+/**
+ * Provides the contents of the complications {@link ComplicationLayer} shows.
+ *
+ * Complications are numbered from 0. The layer polls the source on every frame it draws, so
+ * getters should be cheap and not allocate; the layer only reads the icon and text again after
+ * {@link #getVersion(int)} changes.
+ */
+public interface ComplicationDataSource {
+    /**
+     * @return How many complications there are
+     */
+    int getComplicationCount();
+
+    /**
+     * Brings the data up to the given time, called before every frame
+     * @param timeMillis The wall clock time the frame shows
+     */
+    void update(long timeMillis);
+
+    /**
+     * @return A number that changes whenever the complication's icon or text does
+     */
+    int getVersion(int complicationId);
+
+    @Nullable
+    Bitmap getIcon(int complicationId);
+
+    CharSequence getText(int complicationId);
+}
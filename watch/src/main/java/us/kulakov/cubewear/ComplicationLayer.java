@@ -0,0 +1,381 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws the complications of a {@link ComplicationDataSource} as labels with an optional icon.
+ *
+ * Every complication is rasterized with a Canvas into a small bitmap of its own, in one variant
+ * for interactive and one for ambient mode. Those entries are packed into a single texture atlas,
+ * and only re-rasterized and re-uploaded, into their own rectangle, when the source reports a new
+ * version. All complications then go out as one batch of quads in a single draw call. The quad
+ * vertices are only uploaded again when a position or an atlas rectangle changes.
+ *
+ * Entries stay cached until the byte budget or the atlas runs out, at which point the least
+ * recently drawn ones are evicted. Entries drawn in the current frame are never evicted.
+ */
+public class ComplicationLayer {
+    public static final int PASS_TRAITS = RenderPassPlanner.TRAIT_OVERLAY;
+
+    public static final int MAX_COMPLICATIONS = 8;
+    public static final int ENTRY_WIDTH = 112;
+    public static final int ENTRY_HEIGHT = 36;
+    public static final int DEFAULT_BUDGET_BYTES = 128 * 1024;
+
+    private static final int ATLAS_SIZE = 256;
+    // Transparent pixels between entries, so filtering never reaches a neighbour's pixels
+    private static final int ATLAS_SPACING = 1;
+    private static final int PADDING = 2;
+    private static final int ICON_GAP = 4;
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int VERTICES_PER_QUAD = 4;
+    private static final int INDICES_PER_QUAD = 6;
+
+    private static final class Entry {
+        final AtlasAllocator.Region mRegion = new AtlasAllocator.Region(ENTRY_WIDTH, ENTRY_HEIGHT);
+        final Bitmap mBitmap = Bitmap.createBitmap(ENTRY_WIDTH, ENTRY_HEIGHT, Bitmap.Config.ARGB_8888);
+        int mKey = -1;
+        int mVersion = 0;
+        long mLastUsedFrame = 0;
+        boolean mDirty = false;
+    }
+
+    private final ComplicationDataSource mSource;
+    private final int mMaxEntries;
+    private final AtlasAllocator mAllocator = new AtlasAllocator(ATLAS_SIZE, ATLAS_SIZE, ATLAS_SPACING);
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final List<Entry> mFreeEntries = new ArrayList<>();
+
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAmbientTextPaint = new Paint();
+    private final Paint mIconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mIconBounds = new Rect();
+
+    private final float[] mPositions = new float[MAX_COMPLICATIONS * 2];
+    private final boolean[] mPlaced = new boolean[MAX_COMPLICATIONS];
+    private final Entry[] mFrameEntries = new Entry[MAX_COMPLICATIONS];
+    // What each quad of the vertex buffer was last written from
+    private final Entry[] mQuadEntries = new Entry[MAX_COMPLICATIONS];
+    private final float[] mProjectionMatrix = new float[16];
+
+    private final GlAtlasTexture mAtlas;
+    private final GlBuffer mVertexBuffer;
+    private final FloatBuffer mVertices;
+    private final GlBuffer mIndexBuffer;
+    private final GlProgram mProgram;
+
+    private long mFrame = 0;
+    private int mQuadCount = 0;
+    private boolean mVerticesDirty = true;
+    private long mRasterizeCount = 0;
+    private long mEvictionCount = 0;
+
+    /**
+     * @param source Where the complications come from
+     * @param budgetBytes How much memory cached entries may take, see {@link #DEFAULT_BUDGET_BYTES}
+     */
+    public ComplicationLayer(ComplicationDataSource source, GlResourceManager resources, int budgetBytes) {
+        mSource = source;
+        mMaxEntries = Math.max(1, budgetBytes / (ENTRY_WIDTH * ENTRY_HEIGHT * 4));
+
+        mTextPaint.setTextSize(22);
+        mTextPaint.setColor(0xFFFFFFFF);
+        mAmbientTextPaint.setTextSize(22);
+        mAmbientTextPaint.setColor(0xFFFFFFFF);
+
+        mAtlas = resources.createAtlasTexture(ATLAS_SIZE, ATLAS_SIZE);
+        mVertexBuffer = resources.createStreamBuffer(GLES20.GL_ARRAY_BUFFER,
+                MAX_COMPLICATIONS * VERTICES_PER_QUAD * FLOATS_PER_VERTEX * Constants.FLOAT_SIZE_BYTES);
+        mVertices = mVertexBuffer.getData().asFloatBuffer();
+
+        short[] indices = new short[MAX_COMPLICATIONS * INDICES_PER_QUAD];
+        for (int i = 0; i < MAX_COMPLICATIONS; i++) {
+            short first = (short) (i * VERTICES_PER_QUAD);
+            indices[i * INDICES_PER_QUAD] = first;
+            indices[i * INDICES_PER_QUAD + 1] = (short) (first + 1);
+            indices[i * INDICES_PER_QUAD + 2] = (short) (first + 2);
+            indices[i * INDICES_PER_QUAD + 3] = first;
+            indices[i * INDICES_PER_QUAD + 4] = (short) (first + 2);
+            indices[i * INDICES_PER_QUAD + 5] = (short) (first + 3);
+        }
+        mIndexBuffer = resources.createBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, indices);
+
+        // Same textured quad shaders as the frame rate overlay, so the program is shared
+        mProgram = resources.createProgram(FrameRateComponent.mVertexShader, FrameRateComponent.mFragmentShader);
+    }
+
+    public void setSurface(int width, int height) {
+        Matrix.orthoM(mProjectionMatrix, 0, 0, width, 0, height, -1, 1);
+    }
+
+    /**
+     * Shows a complication centered on the given point. Complications without a position aren't
+     * drawn.
+     * @param complicationId The complication, less than {@link #MAX_COMPLICATIONS}
+     * @param x In pixels from the left of the surface
+     * @param y In pixels from the bottom of the surface
+     */
+    public void setPosition(int complicationId, float x, float y) {
+        mPositions[complicationId * 2] = x;
+        mPositions[complicationId * 2 + 1] = y;
+        mPlaced[complicationId] = true;
+        mVerticesDirty = true;
+    }
+
+    /**
+     * @return How many entries have been drawn with a Canvas so far
+     */
+    public long getRasterizeCount() {
+        return mRasterizeCount;
+    }
+
+    /**
+     * @return How many entries have been evicted so far
+     */
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return How many entries are cached in the atlas
+     */
+    public int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Frees the bitmaps of the cached entries. The GL objects belong to the resource manager.
+     */
+    public void release() {
+        for (Entry entry : mEntries) {
+            entry.mBitmap.recycle();
+        }
+        for (Entry entry : mFreeEntries) {
+            entry.mBitmap.recycle();
+        }
+        mEntries.clear();
+        mFreeEntries.clear();
+    }
+
+    /**
+     * Brings the complications up to date and draws them
+     * @param timeMillis The wall clock time the frame shows
+     * @param isAmbient Whether to draw the ambient variant
+     */
+    public void draw(long timeMillis, boolean isAmbient) {
+        RenderTrace.beginSection("ComplicationLayer.draw");
+        mFrame++;
+        mSource.update(timeMillis);
+
+        // The atlas only lives on the GPU, a new context needs every entry again
+        if (!mAtlas.isUploaded()) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                mEntries.get(i).mDirty = true;
+            }
+        }
+
+        // Claim the cached entries first, so making room for the others can't evict them
+        int count = Math.min(mSource.getComplicationCount(), MAX_COMPLICATIONS);
+        for (int id = 0; id < count; id++) {
+            Entry entry = mPlaced[id] ? findEntry(keyOf(id, isAmbient)) : null;
+            if (entry != null) {
+                entry.mLastUsedFrame = mFrame;
+            }
+            mFrameEntries[id] = entry;
+        }
+
+        int quadCount = 0;
+        for (int id = 0; id < count; id++) {
+            if (!mPlaced[id]) {
+                continue;
+            }
+            Entry entry = mFrameEntries[id];
+            int version = mSource.getVersion(id);
+            if (entry == null) {
+                entry = allocateEntry();
+                if (entry == null) {
+                    continue;
+                }
+                entry.mKey = keyOf(id, isAmbient);
+                entry.mLastUsedFrame = mFrame;
+                // A new atlas rectangle, even if the entry object drew this quad before
+                mVerticesDirty = true;
+                rasterize(entry, id, isAmbient);
+            } else if (entry.mVersion != version) {
+                rasterize(entry, id, isAmbient);
+            }
+            entry.mVersion = version;
+            mFrameEntries[id] = null;
+
+            if (entry.mDirty) {
+                mAtlas.update(entry.mBitmap, entry.mRegion.getX(), entry.mRegion.getY());
+                entry.mDirty = false;
+            }
+            if (mQuadEntries[quadCount] != entry) {
+                mQuadEntries[quadCount] = entry;
+                mVerticesDirty = true;
+            }
+            putQuad(quadCount++, entry.mRegion, mPositions[id * 2], mPositions[id * 2 + 1]);
+        }
+        if (quadCount != mQuadCount) {
+            mQuadCount = quadCount;
+            mVerticesDirty = true;
+        }
+
+        if (quadCount > 0) {
+            drawQuads(quadCount);
+        }
+        RenderTrace.endSection();
+    }
+
+    private static int keyOf(int complicationId, boolean isAmbient) {
+        return complicationId * 2 + (isAmbient ? 1 : 0);
+    }
+
+    private Entry findEntry(int key) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).mKey == key) {
+                return mEntries.get(i);
+            }
+        }
+        return null;
+    }
+
+    private Entry allocateEntry() {
+        if (mEntries.size() >= mMaxEntries && !evictLeastRecentlyUsed()) {
+            return null;
+        }
+        int last = mFreeEntries.size() - 1;
+        Entry entry = last >= 0 ? mFreeEntries.remove(last) : new Entry();
+        while (!mAllocator.allocate(entry.mRegion)) {
+            if (!evictLeastRecentlyUsed()) {
+                mFreeEntries.add(entry);
+                return null;
+            }
+        }
+        mEntries.add(entry);
+        return entry;
+    }
+
+    private boolean evictLeastRecentlyUsed() {
+        int oldest = -1;
+        for (int i = 0; i < mEntries.size(); i++) {
+            long lastUsed = mEntries.get(i).mLastUsedFrame;
+            if (lastUsed < mFrame && (oldest < 0 || lastUsed < mEntries.get(oldest).mLastUsedFrame)) {
+                oldest = i;
+            }
+        }
+        if (oldest < 0) {
+            return false;
+        }
+        // Order doesn't matter, swap the last entry in instead of shifting
+        Entry entry = mEntries.get(oldest);
+        mEntries.set(oldest, mEntries.get(mEntries.size() - 1));
+        mEntries.remove(mEntries.size() - 1);
+
+        mAllocator.free(entry.mRegion);
+        entry.mKey = -1;
+        mFreeEntries.add(entry);
+        mEvictionCount++;
+        return true;
+    }
+
+    private void rasterize(Entry entry, int complicationId, boolean isAmbient) {
+        RenderTrace.beginSection("ComplicationLayer.rasterize");
+        entry.mBitmap.eraseColor(0x00000000);
+        mCanvas.setBitmap(entry.mBitmap);
+
+        // No icons in ambient mode, they'd be mostly lit pixels
+        float textLeft = PADDING;
+        Bitmap icon = isAmbient ? null : mSource.getIcon(complicationId);
+        if (icon != null) {
+            int iconSize = ENTRY_HEIGHT - 2 * PADDING;
+            mIconBounds.set(PADDING, PADDING, PADDING + iconSize, PADDING + iconSize);
+            mCanvas.drawBitmap(icon, null, mIconBounds, mIconPaint);
+            textLeft += iconSize + ICON_GAP;
+        }
+
+        Paint paint = isAmbient ? mAmbientTextPaint : mTextPaint;
+        CharSequence text = mSource.getText(complicationId);
+        float baseline = (ENTRY_HEIGHT - paint.ascent() - paint.descent()) / 2f;
+        mCanvas.drawText(text, 0, text.length(), textLeft, baseline, paint);
+
+        mCanvas.setBitmap(null);
+        entry.mDirty = true;
+        mRasterizeCount++;
+        RenderTrace.endSection();
+    }
+
+    private void putQuad(int quad, AtlasAllocator.Region region, float centerX, float centerY) {
+        // Whole pixels, so texels map 1:1 onto the screen
+        float left = Math.round(centerX - ENTRY_WIDTH / 2f);
+        float bottom = Math.round(centerY - ENTRY_HEIGHT / 2f);
+        float right = left + ENTRY_WIDTH;
+        float top = bottom + ENTRY_HEIGHT;
+
+        float u0 = (float) region.getX() / ATLAS_SIZE;
+        float v0 = (float) region.getY() / ATLAS_SIZE;
+        float u1 = (float) (region.getX() + ENTRY_WIDTH) / ATLAS_SIZE;
+        float v1 = (float) (region.getY() + ENTRY_HEIGHT) / ATLAS_SIZE;
+
+        // Same corner order as the frame rate overlay: top left, bottom left, bottom right, top right
+        int index = quad * VERTICES_PER_QUAD * FLOATS_PER_VERTEX;
+        index = putVertex(index, left, top, u0, v0);
+        index = putVertex(index, left, bottom, u0, v1);
+        index = putVertex(index, right, bottom, u1, v1);
+        putVertex(index, right, top, u1, v0);
+    }
+
+    private int putVertex(int index, float x, float y, float u, float v) {
+        mVertices.put(index, x);
+        mVertices.put(index + 1, y);
+        mVertices.put(index + 2, u);
+        mVertices.put(index + 3, v);
+        return index + FLOATS_PER_VERTEX;
+    }
+
+    private void drawQuads(int quadCount) {
+        mProgram.use();
+        mAtlas.bind(GLES20.GL_TEXTURE0);
+
+        int stride = FLOATS_PER_VERTEX * Constants.FLOAT_SIZE_BYTES;
+        if (mVerticesDirty) {
+            mVertexBuffer.update(quadCount * VERTICES_PER_QUAD * stride);
+            mVerticesDirty = false;
+        } else {
+            mVertexBuffer.bind();
+        }
+
+        int positionLoc = mProgram.getAttribLocation("a_Position");
+        GLES20.glEnableVertexAttribArray(positionLoc);
+        GLES20.glVertexAttribPointer(positionLoc, 2, GLES20.GL_FLOAT, false, stride, 0);
+
+        int texCoordLoc = mProgram.getAttribLocation("a_TexCoord");
+        GLES20.glEnableVertexAttribArray(texCoordLoc);
+        GLES20.glVertexAttribPointer(texCoordLoc, 2, GLES20.GL_FLOAT, false, stride,
+                2 * Constants.FLOAT_SIZE_BYTES);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_MVPMatrix"), 1, false, mProjectionMatrix, 0);
+        GLES20.glUniform1i(mProgram.getUniformLocation("s_Texture"), 0);
+
+        mIndexBuffer.bind();
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quadCount * INDICES_PER_QUAD, GLES20.GL_UNSIGNED_SHORT, 0);
+        GlStats.countDrawCall();
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        GLES20.glDisableVertexAttribArray(positionLoc);
+        GLES20.glDisableVertexAttribArray(texCoordLoc);
+    }
+}
@@ -16,12 +16,8 @@
  */
 
 package us.kulakov.cubewear;
+import android.content.Context;
 import android.opengl.GLES20;
-import android.util.Log;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 /**
  * Cube program
@@ -31,76 +27,30 @@ import java.nio.FloatBuffer;
 public class Cube {
     private static final String TAG = Cube.class.getSimpleName();
 
+    public static final int PASS_TRAITS =
+            RenderPassPlanner.TRAIT_CONVEX | RenderPassPlanner.TRAIT_BACK_FACE_CULLED;
 
     private static final String VERTEX_SHADER = "shaders/cube.vert";
     private static final String FRAGMENT_SHADER = "shaders/cube.frag";
 
-    private final FloatBuffer mCubePositions;
-    private final FloatBuffer mCubeColors;
-    private final FloatBuffer mCubeNormals;
+    private final GlBuffer mCubePositions;
+    private final GlBuffer mCubeColors;
+    private final GlBuffer mCubeNormals;
 
     private final PlatformContext mPlatformContext;
 
-    private int mProgramHandle;
-    
-    private int mPositionHandle;
-    private int mNormalHandle;
-    private int mColorHandle;
-    private int mMVPMatrixHandle;
-    private int mMVMatrixHandle;
-    private int mLightPosHandle;
+    private final GlProgram mProgram;
 
-    public Cube(PlatformContext platformContext) {
+    public Cube(PlatformContext platformContext, GlResourceManager resources) {
         mPlatformContext = platformContext;
+        Context context = mPlatformContext.getContext();
 
+        // Initialize the buffers. They're uploaded on first draw, and again after context loss.
+        mCubePositions = resources.createBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, CubeModel.VERTEX_POSITIONS);
+        mCubeColors = resources.createBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, CubeModel.VERTEX_COLORS);
+        mCubeNormals = resources.createBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, CubeModel.VERTEX_NORMALS);
 
-        // Initialize the buffers.
-        mCubePositions = ByteBuffer.allocateDirect(CubeModel.VERTEX_POSITIONS.length * Constants.FLOAT_SIZE_BYTES)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mCubePositions.put(CubeModel.VERTEX_POSITIONS);
-        mCubePositions.position(0);
-
-        mCubeColors = ByteBuffer.allocateDirect(CubeModel.VERTEX_COLORS.length * Constants.FLOAT_SIZE_BYTES)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mCubeColors.put(CubeModel.VERTEX_COLORS);
-        mCubeColors.position(0);
-
-        mCubeNormals = ByteBuffer.allocateDirect(CubeModel.VERTEX_NORMALS.length * Constants.FLOAT_SIZE_BYTES)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mCubeNormals.put(CubeModel.VERTEX_NORMALS);
-        mCubeNormals.position(0);
-
-
-        mProgramHandle = GLES20.glCreateProgram();
-
-        if(mProgramHandle != 0) {
-            GLES20.glAttachShader(mProgramHandle, Utils.loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER, mPlatformContext.getContext()));
-            GLES20.glAttachShader(mProgramHandle, Utils.loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER, mPlatformContext.getContext()));
-
-            GLES20.glLinkProgram(mProgramHandle);
-
-            int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(mProgramHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
-
-            if (linkStatus[0] != GLES20.GL_TRUE) {
-                Log.e(TAG, "Could not link program:");
-                Log.e(TAG, GLES20.glGetProgramInfoLog(mProgramHandle));
-                GLES20.glDeleteProgram(mProgramHandle);
-                mProgramHandle = 0;
-            }
-
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
-            mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
-            mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
-
-            mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-            mNormalHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Normal");
-            mColorHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Color");
-        }
-
-        if(mProgramHandle == 0) {
-            throw new RuntimeException("Failed to create or link program");
-        }
+        mProgram = resources.createProgramFromAssets(context, VERTEX_SHADER, FRAGMENT_SHADER);
     }
 
     public void setTimeLightOrigin(float[] timeLightOrigin) {
@@ -108,27 +58,39 @@ public class Cube {
     }
 
     public void draw(float[] mvpMatrix, float[] mvMatrix) {
-        GLES20.glUseProgram(mProgramHandle);
+        RenderTrace.beginSection("Cube.draw");
+        mProgram.use();
+
+        int positionHandle = mProgram.getAttribLocation("a_Position");
+        mCubePositions.bind();
+        GLES20.glVertexAttribPointer(positionHandle, CubeModel.POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glEnableVertexAttribArray(positionHandle);
 
-        mCubePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, CubeModel.POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, 0, mCubePositions);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        int colorHandle = mProgram.getAttribLocation("a_Color");
+        mCubeColors.bind();
+        GLES20.glVertexAttribPointer(colorHandle, CubeModel.COLOR_DATA_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glEnableVertexAttribArray(colorHandle);
 
-        mCubeColors.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, CubeModel.COLOR_DATA_SIZE, GLES20.GL_FLOAT, false, 0, mCubeColors);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        int normalHandle = mProgram.getAttribLocation("a_Normal");
+        mCubeNormals.bind();
+        GLES20.glVertexAttribPointer(normalHandle, CubeModel.NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glEnableVertexAttribArray(normalHandle);
 
-        mCubeNormals.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, CubeModel.NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, 0, mCubeNormals);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
         // Pass in the light position in eye space.
-        GLES20.glUniform3f(mLightPosHandle, 0f, 0f, 0f);
+        GLES20.glUniform3f(mProgram.getUniformLocation("u_LightPos"), 0f, 0f, 0f);
 
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mvMatrix, 0);
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_MVMatrix"), 1, false, mvMatrix, 0);
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_MVPMatrix"), 1, false, mvpMatrix, 0);
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
+        GlStats.countDrawCall();
+
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(colorHandle);
+        GLES20.glDisableVertexAttribArray(normalHandle);
+        RenderTrace.endSection();
     }
 
 
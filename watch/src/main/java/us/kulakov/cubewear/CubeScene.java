@@ -0,0 +1,205 @@
+package us.kulakov.cubewear;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Everything the cube watch face draws, independent of the wallpaper service hosting it.
+ *
+ * The engine forwards its GL lifecycle here and decides when frames happen. Keeping the scene
+ * separate lets the same rendering run against any GL context, e.g. a headless one in the day
+ * simulation benchmark.
+ */
+public class CubeScene {
+    /** Where the sparks come from, in cube model space */
+    private static final float[] SPARKS_ORIGIN = { 1.0f, 1.0f, -1.0f, 1.0f };
+    /** The camera position, in world space */
+    private static final float[] EYE_POSITION = { 0.0f, 0.0f, -1.0f, 1.0f };
+
+    private final float[] mProjectionMatrix = new float[16];
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mModelMatrix = new float[16];
+    private final float[] mMVPMatrix = new float[16];
+    private final float[] mMVMatrix = new float[16];
+    private final float[] mVPMatrix = new float[16];
+    private final float[] mSparksPosition = new float[4];
+
+    private final PlatformContext mPlatformContext;
+    private final GlResourceManager mResources;
+    private final RenderPassPlanner mPassPlanner = new RenderPassPlanner();
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final DateComplicationDataSource mDateSource = new DateComplicationDataSource();
+    private ComplicationDataSource mComplicationSource = mDateSource;
+
+    private Cube mCube = null;
+    private FrameRateComponent mFPS = null;
+    private SparksComponent mSparks = null;
+    private ComplicationLayer mComplications = null;
+    private float mCubeRotationDegrees = 0f;
+
+    public CubeScene(PlatformContext platformContext, GlResourceManager resources) {
+        mPlatformContext = platformContext;
+        mResources = resources;
+
+        mPassPlanner.addDrawable(Cube.PASS_TRAITS);
+        mPassPlanner.addDrawable(SparksComponent.PASS_TRAITS);
+        mPassPlanner.addDrawable(FrameRateComponent.PASS_TRAITS);
+        mPassPlanner.addDrawable(ComplicationLayer.PASS_TRAITS);
+    }
+
+    /**
+     * @return The planner to choose the EGL config with
+     */
+    public RenderPassPlanner getPassPlanner() {
+        return mPassPlanner;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDateSource.setTimeZone(timeZone);
+    }
+
+    /**
+     * Replaces the date complication with other data, e.g. for stress tests. Has to be called
+     * before the first {@link #onGlContextCreated()}.
+     */
+    public void setComplicationDataSource(ComplicationDataSource source) {
+        if (mComplications != null) {
+            throw new IllegalStateException("Complications are already set up");
+        }
+        mComplicationSource = source;
+    }
+
+    public void onGlContextCreated() {
+        onGlContextCreated(null);
+    }
+
+    /**
+     * @param shareGroup The group of the context the new one was created sharing with, or null
+     *                   if it doesn't share, see {@link EglShareContext}
+     */
+    public void onGlContextCreated(EglShareGroup shareGroup) {
+        // Components survive context loss, their resources get re-uploaded on next draw
+        mResources.onGlContextCreated(shareGroup);
+        mPassPlanner.onGlContextCreated();
+        if (mCube == null) {
+            mCube = new Cube(mPlatformContext, mResources);
+            mFPS = new FrameRateComponent(null, mResources);
+            mSparks = new SparksComponent(mResources);
+            mComplications = new ComplicationLayer(mComplicationSource, mResources,
+                    ComplicationLayer.DEFAULT_BUDGET_BYTES);
+        }
+    }
+
+    public void onGlSurfaceCreated(int width, int height) {
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glEnable(GLES20.GL_CULL_FACE);
+        if (mPassPlanner.needsDepth()) {
+            GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        } else {
+            GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        }
+
+        Matrix.setLookAtM(mViewMatrix, 0, EYE_POSITION[0], EYE_POSITION[1], EYE_POSITION[2],
+                0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+
+        GLES20.glViewport(0, 0, width, height);
+
+        float aspectRatio = (float) width / height;
+        // Create projection matrix based on viewport
+        Matrix.frustumM(mProjectionMatrix, 0, -aspectRatio, aspectRatio, -1.0f, 1.0f, 1.0f, 10.0f);
+        Matrix.multiplyMM(mVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+
+        mFPS.setSurface(width, height, width / 4, height / 4);
+
+        // Complications in a row across the upper half, above the cube
+        mComplications.setSurface(width, height);
+        int count = Math.min(mComplicationSource.getComplicationCount(), ComplicationLayer.MAX_COMPLICATIONS);
+        int columns = Math.min(count, 2);
+        for (int i = 0; i < count; i++) {
+            int row = i / columns;
+            int column = i % columns;
+            mComplications.setPosition(i, width * (column + 1f) / (columns + 1f),
+                    height * 0.8f - row * ComplicationLayer.ENTRY_HEIGHT);
+        }
+    }
+
+    public void onAmbientModeChanged(boolean inAmbientMode) {
+        if (inAmbientMode && mSparks != null) {
+            mSparks.clear();
+        }
+    }
+
+    /**
+     * Draws a frame, with the scene's GL context current
+     * @param timeMillis The wall clock time to show
+     * @param frameTimeNanos The same time on the {@link System#nanoTime()} clock
+     * @param isAmbient Whether the watch is in ambient mode
+     * @param missedVsyncCount The running count of missed vsyncs, for the overlay
+     */
+    public void draw(long timeMillis, long frameTimeNanos, boolean isAmbient, int missedVsyncCount) {
+        mResources.makeCurrent();
+        mCalendar.setTimeInMillis(timeMillis);
+        float seconds =
+                mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f;
+        float minutes = mCalendar.get(Calendar.MINUTE) + seconds / 60f;
+        float hours = mCalendar.get(Calendar.HOUR) + minutes / 60f;
+
+        //TODO: Draw actual time using the cube
+        // Just a test, for now: in ambient mode, rotate cube with passing of minutes
+        // In interactive, rotate with seconds
+        if (isAmbient) {
+            mCubeRotationDegrees = (minutes / 60f) * 360f;
+        } else {
+            mCubeRotationDegrees = (seconds / 60f) * 360f;
+        }
+
+        GLES20.glClear(mPassPlanner.getClearMask());
+
+        // Update cube model matrix
+        Matrix.setIdentityM(mModelMatrix, 0);
+        Matrix.translateM(mModelMatrix, 0, 0.0f, 0.0f, 2.0f);
+        Matrix.rotateM(mModelMatrix, 0, mCubeRotationDegrees, 0.0f, 1.0f, 0.0f);
+
+        Matrix.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
+        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
+
+        mCube.draw(mMVPMatrix, mMVMatrix);
+
+        // Sparks fly off a corner of the cube, on the same clock as its rotation
+        if (!isAmbient) {
+            Matrix.multiplyMV(mSparksPosition, 0, mModelMatrix, 0, SPARKS_ORIGIN, 0);
+            mSparks.update(timeMillis, mSparksPosition);
+            mSparks.draw(mVPMatrix, mModelMatrix, EYE_POSITION);
+        }
+
+        // Overlays go on top of the scene
+        if (mPassPlanner.needsDepth()) {
+            GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        }
+        mComplications.draw(timeMillis, isAmbient);
+        mFPS.draw(frameTimeNanos, missedVsyncCount);
+        if (mPassPlanner.needsDepth()) {
+            GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        }
+
+        mPassPlanner.discardAttachments();
+    }
+
+    /**
+     * Frees everything, with the scene's GL context current
+     */
+    public void release() {
+        if (mFPS != null) {
+            mFPS.release();
+            mComplications.release();
+        }
+        mResources.release();
+    }
+}
@@ -22,16 +22,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
-import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.support.wearable.watchface.Gles2WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 
-import java.util.Calendar;
 import java.util.TimeZone;
 
 /**
@@ -52,15 +50,14 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
     }
 
     private class Engine extends Gles2WatchFaceService.Engine {
-        private final float[] mProjectionMatrix = new float[16];
-        private final float[] mViewMatrix = new float[16];
-        private final float[] mModelMatrix = new float[16];
-        private final float[] mMVPMatrix = new float[16];
+        private final GlResourceManager mResources =
+                new GlResourceManager(DirectBufferPool.getInstance(), SharedGpuResourceCache.getInstance());
+        private final CubeScene mScene = new CubeScene(CubeWatchFace.this, mResources);
+        private FramePacer mFramePacer = null;
+        private FrameScheduler mFrameScheduler = null;
 
-        private Calendar mCalendar = Calendar.getInstance();
-        private Cube mCube = null;
-        private FrameRateComponent mFPS = null;
-        private float mCubeRotationDegrees = 0f;
+        /** Whether our context was created by {@link EglShareContext} and has to be released to it */
+        private boolean mSharesContext = false;
 
         /** Whether we've registered {@link #mTimeZoneReceiver}. */
         private boolean mRegisteredTimeZoneReceiver;
@@ -68,8 +65,18 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                invalidate();
+                mScene.setTimeZone(TimeZone.getDefault());
+                mFrameScheduler.onTimeZoneChanged();
+            }
+        };
+
+        // Delivered on the main thread, which is also the render thread, so never mid-section
+        private final BroadcastReceiver mRenderTraceReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                boolean recording = intent.getBooleanExtra(RenderTrace.EXTRA_ENABLED, true);
+                Log.d(TAG, "Render trace recording: " + recording);
+                RenderTrace.setRecording(recording);
             }
         };
 
@@ -77,6 +84,14 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
         public void onCreate(SurfaceHolder surfaceHolder) {
             super.onCreate(surfaceHolder);
 
+            mFramePacer = new FramePacer();
+            mFrameScheduler = new FrameScheduler(mFramePacer, new FrameScheduler.Host() {
+                @Override
+                public void invalidate() {
+                    Engine.this.invalidate();
+                }
+            });
+
             setWatchFaceStyle(new WatchFaceStyle.Builder(CubeWatchFace.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_SHORT)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
@@ -84,6 +99,43 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
                     .setHotwordIndicatorGravity(Gravity.LEFT | Gravity.TOP)
                     .setShowSystemUiTime(false)
                     .build());
+
+            // Registered for the engine's whole life, so recording can be switched while hidden
+            CubeWatchFace.this.registerReceiver(mRenderTraceReceiver,
+                    new IntentFilter(RenderTrace.ACTION_SET_RECORDING));
+        }
+
+        @Override
+        public void onDestroy() {
+            CubeWatchFace.this.unregisterReceiver(mRenderTraceReceiver);
+            mFramePacer.stop();
+
+            // GL objects can only be deleted while our context is current
+            makeContextCurrent();
+            mScene.release();
+            super.onDestroy();
+
+            // Our context is gone now
+            if (mSharesContext) {
+                mSharesContext = false;
+                EglShareContext.getInstance().release();
+            }
+        }
+
+        @Override
+        public EGLContext createEglContext(EGLDisplay display, EGLConfig config) {
+            if (mSharesContext) {
+                mSharesContext = false;
+                EglShareContext.getInstance().release();
+            }
+
+            // Share GL objects with the other engines of the process, e.g. the picker preview
+            EGLContext context = EglShareContext.getInstance().createContext(display, config);
+            if (context != null) {
+                mSharesContext = true;
+                return context;
+            }
+            return super.createEglContext(display, config);
         }
 
         @Override
@@ -91,8 +143,7 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
             Log.d(TAG, "onGlContextCreated");
             super.onGlContextCreated();
 
-            mCube = new Cube(CubeWatchFace.this);
-            mFPS = new FrameRateComponent(null);
+            mScene.onGlContextCreated(mSharesContext ? EglShareContext.getInstance().getShareGroup() : null);
         }
 
         @Override
@@ -100,25 +151,18 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
             Log.d(TAG, "onGlSurfaceCreated: " + width + " x " + height);
             super.onGlSurfaceCreated(width, height);
 
-            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-
-            GLES20.glEnable(GLES20.GL_BLEND);
-            GLES20.glEnable(GLES20.GL_CULL_FACE);
-            GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-
-            Matrix.setLookAtM(mViewMatrix, 0, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
-
-            GLES20.glViewport(0, 0, width, height);
-
-            float aspectRatio = (float) width / height;
-            // Create projection matrix based on viewport
-            Matrix.frustumM(mProjectionMatrix, 0, -aspectRatio, aspectRatio, -1.0f, 1.0f, 1.0f, 10.0f);
-
-            mFPS.setSurface(width, height, width / 4, height / 4);
+            mScene.onGlSurfaceCreated(width, height);
         }
 
         @Override
         public EGLConfig chooseEglConfig(EGLDisplay display) {
+            EGLConfig config = chooseEglConfig(display, mScene.getPassPlanner().getEglConfigAttributes());
+            if (config != null) {
+                return config;
+            }
+
+            // Fall back to everything the scene could possibly use
+            Log.w(TAG, "No EGLConfig for the planned render pass, falling back to the full config");
             int[] eglAttribList = {
                     EGL14.EGL_RED_SIZE, 8,
                     EGL14.EGL_GREEN_SIZE, 8,
@@ -133,14 +177,21 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
                     EGL14.EGL_NONE
             };
 
+            config = chooseEglConfig(display, eglAttribList);
+            if (config == null) {
+                Log.w(TAG, "unable to find EGLConfig");
+                throw new RuntimeException("Unable to find desired ES2 EGL config");
+            }
+            return config;
+        }
+
+        private EGLConfig chooseEglConfig(EGLDisplay display, int[] eglAttribList) {
             EGLConfig[] configs = new EGLConfig[1];
 
             int[] numConfigs = new int[1];
             if (!EGL14.eglChooseConfig(display, eglAttribList, 0, configs, 0, configs.length,
-                    numConfigs, 0)) {
-                Log.w(TAG, "unable to find EGLConfig");
-                // TODO: Improve initialization, maybe add fallback EGL configs
-                throw new RuntimeException("Unable to find desired ES2 EGL config");
+                    numConfigs, 0) || numConfigs[0] == 0) {
+                return null;
             }
 
             return configs[0];
@@ -149,21 +200,23 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
-            invalidate();
+            mScene.onAmbientModeChanged(inAmbientMode);
+            mFrameScheduler.onAmbientModeChanged(inAmbientMode);
         }
 
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
+            mFrameScheduler.onVisibilityChanged(visible);
             if (visible) {
                 registerReceiver();
 
                 // Update time zone in case it changed while we were detached.
-                mCalendar.setTimeZone(TimeZone.getDefault());
-
-                invalidate();
+                mScene.setTimeZone(TimeZone.getDefault());
             } else {
                 unregisterReceiver();
+
+                RenderTrace.dumpChromeTrace(CubeWatchFace.this);
             }
         }
 
@@ -188,47 +241,22 @@ public class CubeWatchFace extends Gles2WatchFaceService implements PlatformCont
         public void onTimeTick() {
             super.onTimeTick();
             Log.d(TAG, "onTimeTick: ambient = " + isInAmbientMode());
-            invalidate();
+            mFrameScheduler.onTimeTick();
         }
 
-        private float[] mMVMatrix = new float[16];
-
         @Override
         public void onDraw() {
             super.onDraw();
-            mCalendar.setTimeInMillis(System.currentTimeMillis());
-            float seconds =
-                    mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f;
-            float minutes = mCalendar.get(Calendar.MINUTE) + seconds / 60f;
-            float hours = mCalendar.get(Calendar.HOUR) + minutes / 60f;
-
-            boolean isAmbient = isInAmbientMode();
-
-            //TODO: Draw actual time using the cube
-            // Just a test, for now: in ambient mode, rotate cube with passing of minutes
-            // In interactive, rotate with seconds
-            if (isAmbient) {
-                mCubeRotationDegrees = (minutes / 60f) * 360f;
-            } else {
-                mCubeRotationDegrees = (seconds / 60f) * 360f;
-            }
-
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-
-            // Update cube model matrix
-            Matrix.setIdentityM(mModelMatrix, 0);
-            Matrix.translateM(mModelMatrix, 0, 0.0f, 0.0f, 2.0f);
-            Matrix.rotateM(mModelMatrix, 0, mCubeRotationDegrees, 0.0f, 1.0f, 0.0f);
+            RenderTrace.beginSection("CubeWatchFace.onDraw");
+            // Animate to when this frame is expected on screen, not to when it happens to be drawn
+            long nowNanos = System.nanoTime();
+            long frameTimeNanos = mFrameScheduler.getFrameTimeNanos(nowNanos);
+            long now = System.currentTimeMillis() + (frameTimeNanos - nowNanos) / 1000000L;
 
-            Matrix.multiplyMM(mMVMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
-            Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVMatrix, 0);
+            mScene.draw(now, frameTimeNanos, isInAmbientMode(), mFramePacer.getMissedVsyncCount());
 
-            mCube.draw(mMVPMatrix, mMVMatrix);
-
-            mFPS.draw();
-            if (isVisible() && !isAmbient) {
-                invalidate();
-            }
+            mFrameScheduler.onFrameDrawn();
+            RenderTrace.endSection();
         }
     }
 
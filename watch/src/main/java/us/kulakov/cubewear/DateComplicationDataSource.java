@@ -0,0 +1,61 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A single complication with the day of the week and of the month, e.g. "MON 19"
+ */
+public class DateComplicationDataSource implements ComplicationDataSource {
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final StringBuilder mText = new StringBuilder();
+    private int mDayShown = -1;
+    private int mVersion = 0;
+
+    public void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDayShown = -1;
+    }
+
+    @Override
+    public int getComplicationCount() {
+        return 1;
+    }
+
+    @Override
+    public void update(long timeMillis) {
+        mCalendar.setTimeInMillis(timeMillis);
+        int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day == mDayShown) {
+            return;
+        }
+        mDayShown = day;
+
+        Locale locale = Locale.getDefault();
+        mText.setLength(0);
+        mText.append(mCalendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, locale).toUpperCase(locale))
+                .append(' ')
+                .append(mCalendar.get(Calendar.DAY_OF_MONTH));
+        mVersion++;
+    }
+
+    @Override
+    public int getVersion(int complicationId) {
+        return mVersion;
+    }
+
+    @Nullable
+    @Override
+    public Bitmap getIcon(int complicationId) {
+        return null;
+    }
+
+    @Override
+    public CharSequence getText(int complicationId) {
+        return mText;
+    }
+}
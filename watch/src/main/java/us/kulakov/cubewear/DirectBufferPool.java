@@ -0,0 +1,102 @@
+package us.kulakov.cubewear;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of native-order direct buffers, bucketed into power-of-two size classes.
+ *
+ * Direct buffers live in native memory that is only reclaimed when the Java object gets
+ * finalized, so re-allocating them on every GL context is slow and bloats native heap.
+ * Buffers larger than the biggest size class are allocated directly and never pooled.
+ */
+public class DirectBufferPool {
+    private static final int MIN_SIZE_CLASS_SHIFT = 6;  // 64 bytes
+    private static final int MAX_SIZE_CLASS_SHIFT = 20; // 1 MiB
+    private static final int MAX_POOLED_PER_CLASS = 8;
+
+    private static final DirectBufferPool sInstance = new DirectBufferPool();
+
+    private final ArrayDeque<ByteBuffer>[] mFreeBuffers;
+
+    private int mAllocationCount = 0;
+    private long mAllocatedBytes = 0;
+
+    /**
+     * @return The process-wide pool
+     */
+    public static DirectBufferPool getInstance() {
+        return sInstance;
+    }
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool() {
+        mFreeBuffers = new ArrayDeque[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+        for (int i = 0; i < mFreeBuffers.length; i++) {
+            mFreeBuffers[i] = new ArrayDeque<>(MAX_POOLED_PER_CLASS);
+        }
+    }
+
+    /**
+     * Returns a cleared buffer with its limit set to the requested size
+     * @param sizeBytes The number of bytes needed
+     * @return A native-order direct buffer with at least sizeBytes capacity
+     */
+    public synchronized ByteBuffer acquire(int sizeBytes) {
+        int sizeClass = sizeClassOf(sizeBytes);
+        ByteBuffer buffer = null;
+        if (sizeClass < mFreeBuffers.length) {
+            buffer = mFreeBuffers[sizeClass].pollFirst();
+        }
+        if (buffer == null) {
+            int capacity = sizeClass < mFreeBuffers.length
+                    ? 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT) : sizeBytes;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            mAllocationCount++;
+            mAllocatedBytes += capacity;
+        }
+        buffer.clear();
+        buffer.limit(sizeBytes);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool.
+     * The caller must not use the buffer, or any views of it, afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClassOf(capacity);
+        if (sizeClass >= mFreeBuffers.length || capacity != 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT)) {
+            // Oversized or foreign buffer, let the GC have it
+            return;
+        }
+        ArrayDeque<ByteBuffer> freeBuffers = mFreeBuffers[sizeClass];
+        if (freeBuffers.size() < MAX_POOLED_PER_CLASS) {
+            freeBuffers.addFirst(buffer);
+        }
+    }
+
+    /**
+     * @return The number of direct buffers this pool had to allocate
+     */
+    public synchronized int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * @return The total capacity of the direct buffers this pool had to allocate
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    private static int sizeClassOf(int sizeBytes) {
+        if (sizeBytes <= 1 << MIN_SIZE_CLASS_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(sizeBytes - 1);
+        return shift - MIN_SIZE_CLASS_SHIFT;
+    }
+}
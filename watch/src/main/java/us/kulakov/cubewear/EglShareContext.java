@@ -0,0 +1,142 @@
+package us.kulakov.cubewear;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide EGL context that engine contexts are created sharing with, so the programs,
+ * meshes and textures one engine uploads are already there for the next one.
+ *
+ * The root context has no surface and is never made current, it only keeps its
+ * {@link EglShareGroup} alive. Engines create their contexts with {@link #createContext} and call
+ * {@link #release()} once those are destroyed. After the last engine goes, the root is kept for
+ * {@link SharedGpuResourceCache#UNUSED_GRACE_NANOS}, so an engine that replaces another one (the
+ * picker preview followed by the real face) doesn't compile or upload anything again.
+ */
+public final class EglShareContext {
+    private static final String TAG = EglShareContext.class.getSimpleName();
+
+    private static final int[] CONTEXT_ATTRIBUTES = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+
+    private static EglShareContext sInstance = null;
+
+    private final SharedGpuResourceCache mCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDestroyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            destroyIfUnused();
+        }
+    };
+
+    private EGLDisplay mDisplay = null;
+    private EGLContext mRootContext = null;
+    private EglShareGroup mShareGroup = null;
+    private int mContextCount = 0;
+
+    /**
+     * @return The process-wide root context, for the process-wide resource cache
+     */
+    public static synchronized EglShareContext getInstance() {
+        if (sInstance == null) {
+            sInstance = new EglShareContext(SharedGpuResourceCache.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param cache The cache whose resources live in this context's share group
+     */
+    public EglShareContext(SharedGpuResourceCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Creates a GLES 2 context in the share group, creating the root context first if needed
+     * @return The new context, or null if the driver won't share with the root context, in which
+     *         case the caller falls back to an unshared context
+     */
+    public synchronized EGLContext createContext(EGLDisplay display, EGLConfig config) {
+        if (mRootContext != null && !mDisplay.equals(display)) {
+            Log.w(TAG, "Engine context is on another display, not sharing it");
+            return null;
+        }
+        if (mRootContext == null) {
+            // Our own reference on the display, eglTerminate is counted and the engine that
+            // created the root may terminate its own before the grace period is over
+            int[] version = new int[2];
+            if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+                Log.w(TAG, "Unable to initialize the display: " + EGL14.eglGetError());
+                return null;
+            }
+            mRootContext = EGL14.eglCreateContext(display, config, EGL14.EGL_NO_CONTEXT, CONTEXT_ATTRIBUTES, 0);
+            if (mRootContext == null || mRootContext.equals(EGL14.EGL_NO_CONTEXT)) {
+                Log.w(TAG, "Unable to create the root context: " + EGL14.eglGetError());
+                mRootContext = null;
+                EGL14.eglTerminate(display);
+                return null;
+            }
+            mDisplay = display;
+            mShareGroup = new EglShareGroup();
+        }
+
+        EGLContext context = EGL14.eglCreateContext(display, config, mRootContext, CONTEXT_ATTRIBUTES, 0);
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            Log.w(TAG, "Unable to create a context sharing with the root context: " + EGL14.eglGetError());
+            if (mContextCount == 0) {
+                destroyIfUnused();
+            }
+            return null;
+        }
+        mContextCount++;
+        mHandler.removeCallbacks(mDestroyRunnable);
+        return context;
+    }
+
+    /**
+     * @return The share group of the contexts created by {@link #createContext}
+     */
+    public synchronized EglShareGroup getShareGroup() {
+        return mShareGroup;
+    }
+
+    /**
+     * Called after a context from {@link #createContext} has been destroyed
+     */
+    public synchronized void release() {
+        if (mContextCount == 0) {
+            throw new IllegalStateException("No shared context to release");
+        }
+        if (--mContextCount == 0) {
+            mHandler.postDelayed(mDestroyRunnable,
+                    TimeUnit.NANOSECONDS.toMillis(SharedGpuResourceCache.UNUSED_GRACE_NANOS));
+        }
+    }
+
+    /**
+     * Destroys the root context if no engine context shares it anymore. The GL objects of the
+     * share group go away with it, so cached resources that nobody uses are dropped as well.
+     */
+    synchronized void destroyIfUnused() {
+        if (mContextCount > 0 || mRootContext == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mDestroyRunnable);
+        EGL14.eglDestroyContext(mDisplay, mRootContext);
+        EGL14.eglTerminate(mDisplay);
+        mRootContext = null;
+        mDisplay = null;
+        mShareGroup.release();
+        mShareGroup = null;
+
+        // The objects are gone with the group, only the CPU-side data is left to free
+        mCache.evictUnused();
+    }
+}
@@ -0,0 +1,70 @@
+package us.kulakov.cubewear;
+
+/**
+ * A set of EGL contexts that share GL objects. {@link GlResource}s keep one handle per group, so a
+ * resource uploaded by one engine is reused by every engine whose context is in the same group.
+ *
+ * Like EGL's current context, one group is current on the render thread at a time, see
+ * {@link GlResourceManager#makeCurrent()}. All watch face engines render on the main thread.
+ */
+public final class EglShareGroup {
+    private static EglShareGroup sCurrent = null;
+    private static int sNextId = 1;
+
+    private final int mId;
+    private int mContextCount = 1;
+
+    /**
+     * Creates a group holding a single, newly created context
+     */
+    public EglShareGroup() {
+        mId = sNextId++;
+    }
+
+    public static EglShareGroup getCurrent() {
+        return sCurrent;
+    }
+
+    static void setCurrent(EglShareGroup group) {
+        sCurrent = group;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return Whether any context of this group is still alive. Objects of a dead group are gone.
+     */
+    public boolean isAlive() {
+        return mContextCount > 0;
+    }
+
+    /**
+     * Adds a context that was created sharing with one of this group's contexts
+     */
+    public EglShareGroup retain() {
+        if (!isAlive()) {
+            throw new IllegalStateException("Share group " + mId + " has no contexts left to share with");
+        }
+        mContextCount++;
+        return this;
+    }
+
+    /**
+     * Removes a context that has been, or is about to be, destroyed
+     */
+    public void release() {
+        if (mContextCount > 0) {
+            mContextCount--;
+        }
+        if (!isAlive() && sCurrent == this) {
+            sCurrent = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EglShareGroup(" + mId + ")";
+    }
+}
@@ -0,0 +1,144 @@
+package us.kulakov.cubewear;
+
+import android.view.Choreographer;
+
+/**
+ * Samples vsync timestamps from {@link Choreographer} callbacks while frames are being rendered.
+ *
+ * Each callback carries the vsync timestamp, from which we track the display's vsync interval,
+ * count vsyncs that passed without a callback (frames we missed), and predict when the frame
+ * rendered for this vsync will reach the screen. Animating to that predicted time, rather than to
+ * whenever onDraw happens to run, keeps motion even when frames are late or the frame rate is low.
+ *
+ * The pacer doesn't request frames itself, see {@link FrameScheduler}. Must be used from the
+ * thread whose looper renders, i.e. the main thread for watch faces.
+ */
+public class FramePacer implements Choreographer.FrameCallback {
+    /**
+     * Where frame callbacks are posted, {@link Choreographer} outside of tests
+     */
+    public interface VsyncSource {
+        void postFrameCallback(Choreographer.FrameCallback callback);
+
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    private static final long DEFAULT_VSYNC_INTERVAL_NANOS = 16666667L;
+    // A frame started at vsync N is usually on screen at vsync N + 2: one to render, one to compose
+    private static final int PRESENT_LATENCY_VSYNCS = 2;
+    // Weight of the newest sample in the vsync interval's moving average
+    private static final float INTERVAL_SMOOTHING = 0.1f;
+
+    private final VsyncSource mVsyncSource;
+
+    private boolean mRunning = false;
+    private long mLastVsyncNanos = 0;
+    private long mVsyncIntervalNanos = DEFAULT_VSYNC_INTERVAL_NANOS;
+    private long mPredictedPresentNanos = 0;
+    private int mMissedVsyncCount = 0;
+
+    /**
+     * Creates a pacer on the calling thread's {@link Choreographer}
+     */
+    public FramePacer() {
+        this(new VsyncSource() {
+            private final Choreographer mChoreographer = Choreographer.getInstance();
+
+            @Override
+            public void postFrameCallback(Choreographer.FrameCallback callback) {
+                mChoreographer.postFrameCallback(callback);
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                mChoreographer.removeFrameCallback(callback);
+            }
+        });
+    }
+
+    public FramePacer(VsyncSource vsyncSource) {
+        mVsyncSource = vsyncSource;
+    }
+
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mVsyncSource.postFrameCallback(this);
+    }
+
+    /**
+     * Stops the callbacks. The next start begins a fresh timeline, so the pause doesn't count as
+     * missed vsyncs.
+     */
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mLastVsyncNanos = 0;
+        mPredictedPresentNanos = 0;
+        mVsyncSource.removeFrameCallback(this);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        // Not traced, the frame it samples for is, under CubeWatchFace.onDraw
+        onVsync(frameTimeNanos);
+        mVsyncSource.postFrameCallback(this);
+    }
+
+    /**
+     * Feeds one vsync timestamp into the pacing model
+     * @param vsyncNanos The vsync time, on the {@link System#nanoTime()} clock
+     */
+    void onVsync(long vsyncNanos) {
+        if (mLastVsyncNanos != 0) {
+            long delta = vsyncNanos - mLastVsyncNanos;
+            long intervals = (delta + mVsyncIntervalNanos / 2) / mVsyncIntervalNanos;
+            if (intervals == 1) {
+                mVsyncIntervalNanos += (long) ((delta - mVsyncIntervalNanos) * INTERVAL_SMOOTHING);
+            } else if (intervals > 1) {
+                mMissedVsyncCount += (int) (intervals - 1);
+            }
+        }
+        mLastVsyncNanos = vsyncNanos;
+        mPredictedPresentNanos = vsyncNanos + PRESENT_LATENCY_VSYNCS * mVsyncIntervalNanos;
+    }
+
+    /**
+     * @return Whether there's a vsync-based prediction for the current frame
+     */
+    public boolean hasPrediction() {
+        return mPredictedPresentNanos != 0;
+    }
+
+    /**
+     * @return When the current frame is expected on screen, on the {@link System#nanoTime()} clock
+     */
+    public long getPredictedPresentTimeNanos() {
+        return mPredictedPresentNanos;
+    }
+
+    /**
+     * @return The smoothed vsync interval
+     */
+    public long getVsyncIntervalNanos() {
+        return mVsyncIntervalNanos;
+    }
+
+    /**
+     * @return The number of vsyncs we didn't get a callback for since this pacer was created
+     */
+    public int getMissedVsyncCount() {
+        return mMissedVsyncCount;
+    }
+}
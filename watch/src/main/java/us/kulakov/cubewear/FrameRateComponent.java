@@ -5,17 +5,14 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.support.annotation.Nullable;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import java.util.concurrent.TimeUnit;
 
 public class FrameRateComponent {
+    public static final int PASS_TRAITS = RenderPassPlanner.TRAIT_OVERLAY;
+
     private final Bitmap mBitmap;
     private final Canvas mCanvas;
     private final String mFpsStringFormat;
@@ -23,10 +20,10 @@ public class FrameRateComponent {
     private final Rect mTextBounds = new Rect();
     private final int mBitmapHeight;
     private final int mBitmapWidth;
-    private FloatBuffer mBufferPositions;
-    private ShortBuffer mBufferIndices;
-    private FloatBuffer mBufferUVCoords;
-    private int[] mTextures = new int[1];
+    private final GlBuffer mBufferPositions;
+    private final GlBuffer mBufferIndices;
+    private final GlBuffer mBufferUVCoords;
+    private final GlTexture mTexture;
 
     private final float[] mProjectionMatrix = new float[16];
     private final float[] mViewMatrix = new float[16];
@@ -37,11 +34,13 @@ public class FrameRateComponent {
     private float mPositionX = 0f;
     private float mPositionY = 0f;
 
-    private int mProgram;
+    private final GlProgram mProgram;
 
     private long mLastFPSReadingTime = System.nanoTime();
     public int mFrameRateShown = 0;
     public int mFrameAccumulator = 0;
+    private int mMissedVsyncsShown = 0;
+    private int mLastReadingMissedVsyncCount = 0;
 
 
     short[] mVertexIndices = new short[] {
@@ -69,14 +68,14 @@ public class FrameRateComponent {
                     "}";
 
 
-    public FrameRateComponent(@Nullable String fpsStringFormat) {
+    public FrameRateComponent(@Nullable String fpsStringFormat, GlResourceManager resources) {
         // Set up bitmap
         mTextPaint.setTextSize(24);
         mTextPaint.setColor(0xFFFFFFFF);
         mTextPaint.setTextAlign(Paint.Align.CENTER);
 
-        mFpsStringFormat = (fpsStringFormat == null) ? "%d fps" : fpsStringFormat;
-        String fpsText = createFpsText(999);
+        mFpsStringFormat = (fpsStringFormat == null) ? "%d fps %d missed" : fpsStringFormat;
+        String fpsText = createFpsText(999, 999);
         mTextPaint.getTextBounds(fpsText, 0, fpsText.length(), mTextBounds);
 
         mBitmapWidth = mTextBounds.width();
@@ -105,38 +104,25 @@ public class FrameRateComponent {
                 mBitmapWidth, mBitmapHeight, 0.0f,
         };
 
-        // Allocate buffers
-        mBufferUVCoords = ByteBuffer.allocateDirect(textureUVCoords.length * Constants.FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBufferUVCoords.put(textureUVCoords);
-        mBufferUVCoords.position(0);
-
-        mBufferPositions = ByteBuffer.allocateDirect(vertexPositions.length * Constants.FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBufferPositions.put(vertexPositions);
-        mBufferPositions.position(0);
-
-        mBufferIndices = ByteBuffer.allocateDirect(mVertexIndices.length * Constants.SHORT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
-        mBufferIndices.put(mVertexIndices);
-        mBufferIndices.position(0);
-
-        GLES20.glGenTextures(1, mTextures, 0);
-
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, mBitmap, 0);
+        // Allocate buffers. Everything is uploaded on first draw, and again after context loss.
+        mBufferUVCoords = resources.createBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, textureUVCoords);
+        mBufferPositions = resources.createBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, vertexPositions);
+        mBufferIndices = resources.createBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, mVertexIndices);
 
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, Utils.loadShader(GLES20.GL_VERTEX_SHADER, mVertexShader));
-        GLES20.glAttachShader(mProgram, Utils.loadShader(GLES20.GL_FRAGMENT_SHADER, mFragmentShader));
-        GLES20.glLinkProgram(mProgram);
+        mTexture = resources.createTexture(mBitmap);
 
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mProgram = resources.createProgram(mVertexShader, mFragmentShader);
+    }
 
+    /**
+     * Frees the bitmap backing the overlay. The GL objects belong to the resource manager.
+     */
+    public void release() {
+        mBitmap.recycle();
     }
 
-    private String createFpsText(int fps) {
-        return String.format(mFpsStringFormat, fps);
+    private String createFpsText(int fps, int missedVsyncs) {
+        return String.format(mFpsStringFormat, fps, missedVsyncs);
     }
 
     public void setSurface(int width, int height, int positionX, int positionY) {
@@ -148,59 +134,77 @@ public class FrameRateComponent {
         Matrix.multiplyMM(mVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
     }
 
-    public void setFrameRate(int fps) {
+    /**
+     * Redraws the overlay text
+     * @param fps The frame rate over the last second
+     * @param missedVsyncs The vsyncs missed over the last second
+     */
+    public void setFrameRate(int fps, int missedVsyncs) {
+        RenderTrace.beginSection("FrameRateComponent.setFrameRate");
         mBitmap.eraseColor(0x00000000);
 
-        String text = createFpsText(fps);
+        String text = createFpsText(fps, missedVsyncs);
         mCanvas.drawText(text, mBitmapWidth / 2, mBitmapHeight - mTextPaint.descent(), mTextPaint);
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mBitmap);
+        mTexture.update();
+        RenderTrace.endSection();
     }
 
 
-    public void draw() {
-        long currentTime = System.nanoTime();
-        long timeSinceLastReading = (currentTime - mLastFPSReadingTime);
+    /**
+     * Counts and draws a frame
+     * @param frameTimeNanos The frame's timestamp on the {@link System#nanoTime()} clock, ideally
+     *                       its predicted present time from {@link FramePacer}
+     * @param missedVsyncCount The running count of missed vsyncs, see {@link FramePacer#getMissedVsyncCount()}
+     */
+    public void draw(long frameTimeNanos, int missedVsyncCount) {
+        RenderTrace.beginSection("FrameRateComponent.draw");
+        long timeSinceLastReading = (frameTimeNanos - mLastFPSReadingTime);
         mFrameAccumulator++;
 
         if(timeSinceLastReading > TimeUnit.SECONDS.toNanos(1)) {
-            if(mFrameRateShown != mFrameAccumulator) {
+            int missedVsyncs = missedVsyncCount - mLastReadingMissedVsyncCount;
+            if(mFrameRateShown != mFrameAccumulator || mMissedVsyncsShown != missedVsyncs) {
                 mFrameRateShown = mFrameAccumulator;
-                setFrameRate(mFrameRateShown);
+                mMissedVsyncsShown = missedVsyncs;
+                setFrameRate(mFrameRateShown, mMissedVsyncsShown);
             }
             mFrameAccumulator = 1;
-            mLastFPSReadingTime = currentTime;
+            mLastFPSReadingTime = frameTimeNanos;
+            mLastReadingMissedVsyncCount = missedVsyncCount;
         }
 
-        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-
         Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.translateM(mModelMatrix, 0, mPositionX - mBitmapWidth/2, mPositionY - mBitmapHeight/2, 0f);
         Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, mModelMatrix, 0);
 
-        GLES20.glUseProgram(mProgram);
+        mProgram.use();
+        mTexture.bind(GLES20.GL_TEXTURE0);
 
-        int positionLoc = GLES20.glGetAttribLocation(mProgram, "a_Position");
+        int positionLoc = mProgram.getAttribLocation("a_Position");
+        mBufferPositions.bind();
         GLES20.glEnableVertexAttribArray(positionLoc);
-        GLES20.glVertexAttribPointer(positionLoc, 3, GLES20.GL_FLOAT, false, 0, mBufferPositions);
+        GLES20.glVertexAttribPointer(positionLoc, 3, GLES20.GL_FLOAT, false, 0, 0);
 
-        int texCoordLoc = GLES20.glGetAttribLocation(mProgram, "a_TexCoord" );
+        int texCoordLoc = mProgram.getAttribLocation("a_TexCoord");
+        mBufferUVCoords.bind();
         GLES20.glEnableVertexAttribArray (texCoordLoc);
-        GLES20.glVertexAttribPointer(texCoordLoc, 2, GLES20.GL_FLOAT, false, 0, mBufferUVCoords);
+        GLES20.glVertexAttribPointer(texCoordLoc, 2, GLES20.GL_FLOAT, false, 0, 0);
 
-        int mvpMatrixLoc = GLES20.glGetUniformLocation(mProgram, "u_MVPMatrix");
-        GLES20.glUniformMatrix4fv(mvpMatrixLoc, 1, false, mMVPMatrix, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        int texSampleLoc = GLES20.glGetUniformLocation (mProgram, "s_Texture" );
-        GLES20.glUniform1i(texSampleLoc, 0);
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_MVPMatrix"), 1, false, mMVPMatrix, 0);
 
+        GLES20.glUniform1i(mProgram.getUniformLocation("s_Texture"), 0);
+
+        mBufferIndices.bind();
         GLES20.glDrawElements(GLES20.GL_TRIANGLES, mVertexIndices.length,
-                GLES20.GL_UNSIGNED_SHORT, mBufferIndices);
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GlStats.countDrawCall();
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
         GLES20.glDisableVertexAttribArray(positionLoc);
         GLES20.glDisableVertexAttribArray(texCoordLoc);
-
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        RenderTrace.endSection();
     }
 }
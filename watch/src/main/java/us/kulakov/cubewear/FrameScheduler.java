@@ -0,0 +1,101 @@
+package us.kulakov.cubewear;
+
+/**
+ * Decides when the watch face renders, from the engine's lifecycle callbacks: a frame on every
+ * vsync while visible and interactive, otherwise one frame per time tick, ambient mode change or
+ * time zone change, and one when becoming visible.
+ *
+ * Continuous frames are requested by invalidating at the end of each frame, so there's exactly
+ * one draw request per vsync. The {@link FramePacer} runs alongside only to sample those vsyncs
+ * and predict when each frame will be on screen.
+ *
+ * CubeWatchFace's engine and the day simulation both schedule frames through this class, so the
+ * simulation can't drift from what the engine does.
+ */
+public class FrameScheduler {
+    /**
+     * Requests a frame, i.e. the engine's invalidate(). Requests made before the frame is drawn
+     * are merged into one.
+     */
+    public interface Host {
+        void invalidate();
+    }
+
+    private final FramePacer mPacer;
+    private final Host mHost;
+
+    private boolean mVisible = false;
+    private boolean mAmbient = false;
+
+    public FrameScheduler(FramePacer pacer, Host host) {
+        mPacer = pacer;
+        mHost = host;
+    }
+
+    public FramePacer getPacer() {
+        return mPacer;
+    }
+
+    public void onVisibilityChanged(boolean visible) {
+        mVisible = visible;
+        if (visible) {
+            mHost.invalidate();
+        } else {
+            mPacer.stop();
+        }
+    }
+
+    public void onAmbientModeChanged(boolean inAmbientMode) {
+        mAmbient = inAmbientMode;
+        if (inAmbientMode) {
+            // Ambient mode only redraws on time ticks
+            mPacer.stop();
+        }
+        mHost.invalidate();
+    }
+
+    public void onTimeTick() {
+        mHost.invalidate();
+    }
+
+    public void onTimeZoneChanged() {
+        mHost.invalidate();
+    }
+
+    /**
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The time to animate the frame being drawn to: when it's expected on screen if the
+     *         pacer has a prediction, now otherwise
+     */
+    public long getFrameTimeNanos(long nowNanos) {
+        return mPacer.hasPrediction() ? mPacer.getPredictedPresentTimeNanos() : nowNanos;
+    }
+
+    /**
+     * Called at the end of every onDraw, requests the next frame while rendering continuously
+     */
+    public void onFrameDrawn() {
+        if (isContinuous()) {
+            // Started before invalidating, so on every vsync the pacer samples before the frame draws
+            mPacer.start();
+            mHost.invalidate();
+        } else {
+            mPacer.stop();
+        }
+    }
+
+    /**
+     * @return Whether a frame is drawn on every vsync
+     */
+    public boolean isContinuous() {
+        return mVisible && !mAmbient;
+    }
+
+    public boolean isVisible() {
+        return mVisible;
+    }
+
+    public boolean isAmbient() {
+        return mAmbient;
+    }
+}
@@ -0,0 +1,87 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A texture that bitmaps get packed into, see {@link AtlasAllocator}. It starts out transparent
+ * and only keeps its contents on the GPU, so when it isn't {@link #isUploaded() uploaded} to the
+ * current context the owner has to put its bitmaps back in.
+ */
+public class GlAtlasTexture extends GlResource {
+    private final DirectBufferPool mBufferPool;
+    private final int mWidth;
+    private final int mHeight;
+
+    GlAtlasTexture(DirectBufferPool bufferPool, int width, int height) {
+        mBufferPool = bufferPool;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Binds the texture to the given texture unit
+     * @param textureUnit The unit, e.g. GL_TEXTURE0
+     */
+    public void bind(int textureUnit) {
+        int handle = getHandle();
+        GLES20.glActiveTexture(textureUnit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+    }
+
+    /**
+     * Uploads a bitmap into its rectangle of the atlas, leaving the rest alone
+     * @param x The left edge of the rectangle, in pixels
+     * @param y The top edge of the rectangle, in pixels
+     */
+    public void update(Bitmap bitmap, int x, int y) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, getHandle());
+        RenderTrace.beginSection("GlAtlasTexture.texSubImage2D");
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, bitmap);
+        GlStats.countUpload(bitmap.getByteCount());
+        RenderTrace.endSection();
+    }
+
+    @Override
+    protected int upload() {
+        int[] handles = new int[1];
+        GLES20.glGenTextures(1, handles, 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handles[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        // Cleared explicitly, the gaps between rectangles get sampled by linear filtering
+        RenderTrace.beginSection("GlAtlasTexture.texImage2D");
+        int sizeBytes = mWidth * mHeight * 4;
+        ByteBuffer pixels = mBufferPool.acquire(sizeBytes);
+        while (pixels.hasRemaining()) {
+            pixels.put((byte) 0);
+        }
+        pixels.position(0);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        mBufferPool.release(pixels);
+        GlStats.countUpload(sizeBytes);
+        RenderTrace.endSection();
+        return handles[0];
+    }
+
+    @Override
+    protected void delete(int handle) {
+        GLES20.glDeleteTextures(1, new int[] { handle }, 0);
+    }
+}
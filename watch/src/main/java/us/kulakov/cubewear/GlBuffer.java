@@ -0,0 +1,81 @@
+package us.kulakov.cubewear;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A vertex or index buffer object, backed by a pooled direct buffer holding its contents
+ */
+public class GlBuffer extends GlResource {
+    private final DirectBufferPool mBufferPool;
+    private final int mTarget;
+    private final int mUsage;
+    private ByteBuffer mData;
+
+    GlBuffer(DirectBufferPool bufferPool, int target, int usage, ByteBuffer data) {
+        mBufferPool = bufferPool;
+        mTarget = target;
+        mUsage = usage;
+        mData = data;
+    }
+
+    public void bind() {
+        GLES20.glBindBuffer(mTarget, getHandle());
+    }
+
+    public int getSizeBytes() {
+        return mData.limit();
+    }
+
+    /**
+     * @return The CPU-side contents, for buffers that are rewritten with {@link #update(int)}
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    /**
+     * Uploads the first sizeBytes of the contents, and leaves the buffer bound.
+     * The previous storage is orphaned first so we don't wait on draws still reading from it.
+     */
+    public void update(int sizeBytes) {
+        if (!isUploaded()) {
+            bind();
+            return;
+        }
+        RenderTrace.beginSection("GlBuffer.update");
+        GLES20.glBindBuffer(mTarget, getHandle());
+        mData.position(0);
+        GLES20.glBufferData(mTarget, mData.limit(), null, mUsage);
+        GLES20.glBufferSubData(mTarget, 0, sizeBytes, mData);
+        GlStats.countUpload(sizeBytes);
+        RenderTrace.endSection();
+    }
+
+    @Override
+    protected int upload() {
+        RenderTrace.beginSection("GlBuffer.upload");
+        int[] handles = new int[1];
+        GLES20.glGenBuffers(1, handles, 0);
+        GLES20.glBindBuffer(mTarget, handles[0]);
+        mData.position(0);
+        GLES20.glBufferData(mTarget, mData.limit(), mData, mUsage);
+        GlStats.countUpload(mData.limit());
+        RenderTrace.endSection();
+        return handles[0];
+    }
+
+    @Override
+    protected void delete(int handle) {
+        GLES20.glDeleteBuffers(1, new int[] { handle }, 0);
+    }
+
+    @Override
+    protected void releaseData() {
+        if (mData != null) {
+            mBufferPool.release(mData);
+            mData = null;
+        }
+    }
+}
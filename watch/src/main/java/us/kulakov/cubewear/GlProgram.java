@@ -0,0 +1,100 @@
+package us.kulakov.cubewear;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A linked shader program, kept as its sources so it can be rebuilt on a new context.
+ * Attribute and uniform locations are cached for the share group they were looked up in.
+ */
+public class GlProgram extends GlResource {
+    private static final String TAG = GlProgram.class.getSimpleName();
+
+    private final String mVertexShaderSource;
+    private final String mFragmentShaderSource;
+
+    private final Map<String, Integer> mAttribLocations = new HashMap<>();
+    private final Map<String, Integer> mUniformLocations = new HashMap<>();
+    private EglShareGroup mLocationsGroup = null;
+
+    GlProgram(String vertexShaderSource, String fragmentShaderSource) {
+        mVertexShaderSource = vertexShaderSource;
+        mFragmentShaderSource = fragmentShaderSource;
+    }
+
+    public void use() {
+        GLES20.glUseProgram(getHandle());
+    }
+
+    public int getAttribLocation(String name) {
+        int handle = getHandle();
+        checkLocationsGroup();
+        Integer location = mAttribLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetAttribLocation(handle, name);
+            mAttribLocations.put(name, location);
+        }
+        return location;
+    }
+
+    public int getUniformLocation(String name) {
+        int handle = getHandle();
+        checkLocationsGroup();
+        Integer location = mUniformLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(handle, name);
+            mUniformLocations.put(name, location);
+        }
+        return location;
+    }
+
+    private void checkLocationsGroup() {
+        EglShareGroup group = EglShareGroup.getCurrent();
+        if (group != mLocationsGroup) {
+            mAttribLocations.clear();
+            mUniformLocations.clear();
+            mLocationsGroup = group;
+        }
+    }
+
+    @Override
+    protected int upload() {
+        int programHandle = GLES20.glCreateProgram();
+        if (programHandle == 0) {
+            throw new RuntimeException("Failed to create program");
+        }
+
+        int vertexShader = Utils.loadShader(GLES20.GL_VERTEX_SHADER, mVertexShaderSource);
+        int fragmentShader = Utils.loadShader(GLES20.GL_FRAGMENT_SHADER, mFragmentShaderSource);
+        GLES20.glAttachShader(programHandle, vertexShader);
+        GLES20.glAttachShader(programHandle, fragmentShader);
+
+        RenderTrace.beginSection("GlProgram.link");
+        GLES20.glLinkProgram(programHandle);
+        GlStats.countProgramLink();
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        RenderTrace.endSection();
+
+        // The program keeps what it needs, the shaders are freed once it's deleted
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program:");
+            Log.e(TAG, GLES20.glGetProgramInfoLog(programHandle));
+            GLES20.glDeleteProgram(programHandle);
+            throw new RuntimeException("Failed to create or link program");
+        }
+        return programHandle;
+    }
+
+    @Override
+    protected void delete(int handle) {
+        GLES20.glDeleteProgram(handle);
+    }
+}
@@ -0,0 +1,124 @@
+package us.kulakov.cubewear;
+
+/**
+ * A GL object that can be rebuilt from CPU-side data on any context, see {@link GlResourceManager}.
+ * It keeps a handle for every {@link EglShareGroup} it has been used on.
+ */
+public abstract class GlResource {
+    private EglShareGroup[] mGroups = new EglShareGroup[1];
+    private int[] mHandles = new int[1];
+
+    // Last lookup, the common case is the same engine drawing frame after frame
+    private EglShareGroup mLastGroup = null;
+    private int mLastHandle = 0;
+
+    /**
+     * @return The handle of this resource in the current share group, uploading it first if needed
+     */
+    public int getHandle() {
+        EglShareGroup group = EglShareGroup.getCurrent();
+        if (group == null) {
+            throw new IllegalStateException("No share group is current");
+        }
+        if (group != mLastGroup) {
+            int index = indexOf(group);
+            if (index < 0) {
+                index = add(group, upload());
+            }
+            mLastGroup = group;
+            mLastHandle = mHandles[index];
+        }
+        return mLastHandle;
+    }
+
+    /**
+     * @return Whether this resource has been uploaded to the current share group
+     */
+    public boolean isUploaded() {
+        EglShareGroup group = EglShareGroup.getCurrent();
+        return group != null && indexOf(group) >= 0;
+    }
+
+    /**
+     * Creates the GL object on the current context
+     * @return The new handle
+     */
+    protected abstract int upload();
+
+    /**
+     * Deletes the GL object with the given handle from the current context
+     */
+    protected abstract void delete(int handle);
+
+    /**
+     * Releases the CPU-side data, after which the resource can't be uploaded again
+     */
+    protected void releaseData() {
+    }
+
+    /**
+     * Deletes the GL object of the current share group, if there is one
+     */
+    void deleteFromCurrentGroup() {
+        deleteFromGroup(EglShareGroup.getCurrent());
+    }
+
+    /**
+     * Deletes the GL object of the given share group, if there is one. A context of that group
+     * must be current.
+     */
+    void deleteFromGroup(EglShareGroup group) {
+        int index = group != null ? indexOf(group) : -1;
+        if (index >= 0) {
+            delete(mHandles[index]);
+            mGroups[index] = null;
+            mHandles[index] = 0;
+        }
+        mLastGroup = null;
+        mLastHandle = 0;
+    }
+
+    /**
+     * @return Whether this resource has a GL object in a live share group other than the given one
+     */
+    boolean isUploadedOutside(EglShareGroup group) {
+        for (EglShareGroup other : mGroups) {
+            if (other != null && other != group && other.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(EglShareGroup group) {
+        for (int i = 0; i < mGroups.length; i++) {
+            if (mGroups[i] == group) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int add(EglShareGroup group, int handle) {
+        // Slots of dead groups can be reused, their objects went away with their contexts
+        int index = -1;
+        for (int i = 0; i < mGroups.length; i++) {
+            if (mGroups[i] == null || !mGroups[i].isAlive()) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            index = mGroups.length;
+            EglShareGroup[] groups = new EglShareGroup[index * 2];
+            int[] handles = new int[index * 2];
+            System.arraycopy(mGroups, 0, groups, 0, index);
+            System.arraycopy(mHandles, 0, handles, 0, index);
+            mGroups = groups;
+            mHandles = handles;
+        }
+        mGroups[index] = group;
+        mHandles[index] = handle;
+        return index;
+    }
+}
@@ -0,0 +1,169 @@
+package us.kulakov.cubewear;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the GL objects of a watch face engine together with the CPU-side data they're built from.
+ *
+ * Resources keep their data (buffer contents, bitmaps, shader sources) for their whole lifetime
+ * and upload it lazily, the first time they're bound on a GL context. When the engine gets a new
+ * context, {@link #onGlContextCreated()} moves it to a new {@link EglShareGroup} so everything is
+ * re-uploaded on next use, instead of the engine rebuilding its components and leaking the old
+ * buffers.
+ *
+ * Immutable content (programs, static meshes, cached textures) comes from the process-wide
+ * {@link SharedGpuResourceCache}, so engines alive at the same time share it. Streamed buffers and
+ * textures the engine draws into are its own. Buffer data lives in buffers borrowed from a
+ * {@link DirectBufferPool}, which get returned on {@link #release()}.
+ */
+public class GlResourceManager {
+    private final DirectBufferPool mBufferPool;
+    private final SharedGpuResourceCache mSharedCache;
+    private final List<GlResource> mOwnResources = new ArrayList<>();
+    private final List<GlResource> mSharedResources = new ArrayList<>();
+
+    private EglShareGroup mShareGroup = null;
+
+    public GlResourceManager(DirectBufferPool bufferPool, SharedGpuResourceCache sharedCache) {
+        mBufferPool = bufferPool;
+        mSharedCache = sharedCache;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Called when a new GL context becomes current. Handles from the previous context were
+     * destroyed along with it, so they are dropped rather than deleted.
+     */
+    public void onGlContextCreated() {
+        onGlContextCreated(null);
+    }
+
+    /**
+     * Called when a new GL context becomes current
+     * @param shareGroup The group of the context the new one was created sharing with, or null
+     *                   if it doesn't share
+     */
+    public void onGlContextCreated(EglShareGroup shareGroup) {
+        if (mShareGroup != null) {
+            mShareGroup.release();
+        }
+        mShareGroup = shareGroup != null ? shareGroup.retain() : new EglShareGroup();
+        makeCurrent();
+    }
+
+    public EglShareGroup getShareGroup() {
+        return mShareGroup;
+    }
+
+    /**
+     * Makes this manager's share group current. Call whenever the engine's context is made
+     * current, i.e. before drawing.
+     */
+    public void makeCurrent() {
+        EglShareGroup.setCurrent(mShareGroup);
+    }
+
+    public GlProgram createProgram(String vertexShaderSource, String fragmentShaderSource) {
+        return addShared(mSharedCache.acquireProgram(vertexShaderSource, fragmentShaderSource));
+    }
+
+    public GlProgram createProgramFromAssets(Context context, String vertexShaderAsset, String fragmentShaderAsset) {
+        return addShared(mSharedCache.acquireProgramFromAssets(context, vertexShaderAsset, fragmentShaderAsset));
+    }
+
+    /**
+     * Creates a buffer object holding a copy of the given data
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+     * @param usage The GL usage hint
+     */
+    public GlBuffer createBuffer(int target, int usage, float[] data) {
+        return addShared(mSharedCache.acquireBuffer(target, usage, data));
+    }
+
+    /**
+     * Creates a buffer object holding a copy of the given data
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+     * @param usage The GL usage hint
+     */
+    public GlBuffer createBuffer(int target, int usage, short[] data) {
+        return addShared(mSharedCache.acquireBuffer(target, usage, data));
+    }
+
+    /**
+     * Creates a buffer object whose contents are rewritten by the caller every frame, see
+     * {@link GlBuffer#getData()} and {@link GlBuffer#update(int)}
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+     * @param sizeBytes The maximum size of the contents
+     */
+    public GlBuffer createStreamBuffer(int target, int sizeBytes) {
+        ByteBuffer buffer = mBufferPool.acquire(sizeBytes);
+        return addOwn(new GlBuffer(mBufferPool, target, GLES20.GL_STREAM_DRAW, buffer));
+    }
+
+    /**
+     * Creates a texture backed by the given bitmap. The bitmap is still owned by the caller, and
+     * must stay valid until the texture is released.
+     */
+    public GlTexture createTexture(Bitmap bitmap) {
+        return addOwn(new GlTexture(bitmap));
+    }
+
+    /**
+     * Creates an empty texture to pack bitmaps into, see {@link GlAtlasTexture}
+     */
+    public GlAtlasTexture createAtlasTexture(int width, int height) {
+        return addOwn(new GlAtlasTexture(mBufferPool, width, height));
+    }
+
+    /**
+     * Returns the shared texture with the given name, see
+     * {@link SharedGpuResourceCache#acquireTexture(String, SharedGpuResourceCache.BitmapLoader)}
+     */
+    public GlTexture createSharedTexture(String name, SharedGpuResourceCache.BitmapLoader loader) {
+        return addShared(mSharedCache.acquireTexture(name, loader));
+    }
+
+    /**
+     * Deletes the GL objects of this manager's resources and returns their data to the pool.
+     * Must be called with this manager's GL context current.
+     */
+    public void release() {
+        makeCurrent();
+        for (GlResource resource : mOwnResources) {
+            resource.deleteFromCurrentGroup();
+            resource.releaseData();
+        }
+        mOwnResources.clear();
+
+        for (GlResource resource : mSharedResources) {
+            mSharedCache.release(resource);
+        }
+        mSharedResources.clear();
+        // Our context is current, so this is where expired objects of our group can be deleted
+        mSharedCache.trim(System.nanoTime(), mShareGroup);
+
+        if (mShareGroup != null) {
+            mShareGroup.release();
+            mShareGroup = null;
+        }
+    }
+
+    private <T extends GlResource> T addOwn(T resource) {
+        mOwnResources.add(resource);
+        return resource;
+    }
+
+    private <T extends GlResource> T addShared(T resource) {
+        mSharedResources.add(resource);
+        return resource;
+    }
+}
@@ -0,0 +1,51 @@
+package us.kulakov.cubewear;
+
+/**
+ * Running counters of the GL work the watch face submits: draw calls, uploads and program links.
+ * Updated from the render thread only, read by benchmarks to compare scheduling changes.
+ */
+public final class GlStats {
+    private static long sDrawCalls = 0;
+    private static long sUploads = 0;
+    private static long sUploadedBytes = 0;
+    private static long sProgramLinks = 0;
+
+    private GlStats() {
+    }
+
+    static void countDrawCall() {
+        sDrawCalls++;
+    }
+
+    static void countUpload(int sizeBytes) {
+        sUploads++;
+        sUploadedBytes += sizeBytes;
+    }
+
+    static void countProgramLink() {
+        sProgramLinks++;
+    }
+
+    public static long getDrawCalls() {
+        return sDrawCalls;
+    }
+
+    public static long getUploads() {
+        return sUploads;
+    }
+
+    public static long getUploadedBytes() {
+        return sUploadedBytes;
+    }
+
+    public static long getProgramLinks() {
+        return sProgramLinks;
+    }
+
+    public static void reset() {
+        sDrawCalls = 0;
+        sUploads = 0;
+        sUploadedBytes = 0;
+        sProgramLinks = 0;
+    }
+}
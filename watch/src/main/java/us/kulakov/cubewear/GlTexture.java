@@ -0,0 +1,66 @@
+package us.kulakov.cubewear;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+/**
+ * A 2D texture mirroring a bitmap. The bitmap stays with its owner, who calls {@link #update()}
+ * after drawing into it.
+ */
+public class GlTexture extends GlResource {
+    private final Bitmap mBitmap;
+
+    GlTexture(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Binds the texture to the given texture unit
+     * @param textureUnit The unit, e.g. GL_TEXTURE0
+     */
+    public void bind(int textureUnit) {
+        int handle = getHandle();
+        GLES20.glActiveTexture(textureUnit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+    }
+
+    /**
+     * Re-uploads the bitmap contents. If the texture doesn't exist on the current context yet, the
+     * full upload on first use picks up the new contents instead.
+     */
+    public void update() {
+        if (!isUploaded()) {
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, getHandle());
+        RenderTrace.beginSection("GlTexture.texSubImage2D");
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mBitmap);
+        GlStats.countUpload(mBitmap.getByteCount());
+        RenderTrace.endSection();
+    }
+
+    @Override
+    protected int upload() {
+        int[] handles = new int[1];
+        GLES20.glGenTextures(1, handles, 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handles[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        RenderTrace.beginSection("GlTexture.texImage2D");
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, mBitmap, 0);
+        GlStats.countUpload(mBitmap.getByteCount());
+        RenderTrace.endSection();
+        return handles[0];
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    protected void delete(int handle) {
+        GLES20.glDeleteTextures(1, new int[] { handle }, 0);
+    }
+}
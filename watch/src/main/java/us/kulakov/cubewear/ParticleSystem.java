@@ -0,0 +1,194 @@
+package us.kulakov.cubewear;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Fixed-budget particle simulation, kept as parallel primitive arrays instead of one object per
+ * particle. Dead slots go on a free list and get reused, so once running it never allocates.
+ *
+ * {@link #update(float)} integrates, ages and retires every particle in one pass, and packs the
+ * live ones into an interleaved vertex stream (see {@link #FLOATS_PER_VERTEX}) that can be drawn
+ * as GL_POINTS with a single call. Colors are written premultiplied with zero alpha, which makes
+ * them blend additively under GL_ONE, GL_ONE_MINUS_SRC_ALPHA.
+ */
+public class ParticleSystem {
+    /** x, y, z, r, g, b, a */
+    public static final int FLOATS_PER_VERTEX = 7;
+    public static final int POSITION_DATA_SIZE = 3;
+    public static final int COLOR_DATA_SIZE = 4;
+
+    private final int mCapacity;
+
+    private final float[] mPositionX;
+    private final float[] mPositionY;
+    private final float[] mPositionZ;
+    private final float[] mVelocityX;
+    private final float[] mVelocityY;
+    private final float[] mVelocityZ;
+    private final float[] mAge;
+    private final float[] mLifetime; // 0 for free slots
+    private final float[] mColorR;
+    private final float[] mColorG;
+    private final float[] mColorB;
+
+    private final int[] mFreeSlots;
+    private int mFreeCount = 0;
+    // Slots at or above this index have never been used
+    private int mHighWaterMark = 0;
+    private int mAliveCount = 0;
+
+    private final FloatBuffer mVertexData;
+    private int mVertexCount = 0;
+
+    private float mGravity = 0f;
+    private float mDrag = 0f;
+
+    /**
+     * @param capacity The hard limit on live particles
+     * @param vertexData Receives the packed vertices, must hold capacity * FLOATS_PER_VERTEX floats
+     */
+    public ParticleSystem(int capacity, FloatBuffer vertexData) {
+        if (vertexData.capacity() < capacity * FLOATS_PER_VERTEX) {
+            throw new IllegalArgumentException("Vertex buffer too small for " + capacity + " particles");
+        }
+        mCapacity = capacity;
+        mVertexData = vertexData;
+
+        mPositionX = new float[capacity];
+        mPositionY = new float[capacity];
+        mPositionZ = new float[capacity];
+        mVelocityX = new float[capacity];
+        mVelocityY = new float[capacity];
+        mVelocityZ = new float[capacity];
+        mAge = new float[capacity];
+        mLifetime = new float[capacity];
+        mColorR = new float[capacity];
+        mColorG = new float[capacity];
+        mColorB = new float[capacity];
+        mFreeSlots = new int[capacity];
+    }
+
+    /**
+     * @param gravity Acceleration along -y, in units per second squared
+     * @param drag Fraction of velocity lost per second
+     */
+    public void setForces(float gravity, float drag) {
+        mGravity = gravity;
+        mDrag = drag;
+    }
+
+    /**
+     * Spawns a particle
+     * @param lifetime Seconds until the particle dies, must be positive
+     * @return Whether the particle fit in the budget
+     */
+    public boolean emit(float x, float y, float z, float vx, float vy, float vz,
+                        float lifetime, float r, float g, float b) {
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFreeSlots[--mFreeCount];
+        } else if (mHighWaterMark < mCapacity) {
+            slot = mHighWaterMark++;
+        } else {
+            return false;
+        }
+
+        mPositionX[slot] = x;
+        mPositionY[slot] = y;
+        mPositionZ[slot] = z;
+        mVelocityX[slot] = vx;
+        mVelocityY[slot] = vy;
+        mVelocityZ[slot] = vz;
+        mAge[slot] = 0f;
+        mLifetime[slot] = lifetime;
+        mColorR[slot] = r;
+        mColorG[slot] = g;
+        mColorB[slot] = b;
+        mAliveCount++;
+        return true;
+    }
+
+    /**
+     * Advances the simulation and rebuilds the vertex stream
+     * @param deltaSeconds Time since the previous update
+     * @return The number of vertices written
+     */
+    public int update(float deltaSeconds) {
+        final float damping = Math.max(0f, 1f - mDrag * deltaSeconds);
+        final float gravityDelta = mGravity * deltaSeconds;
+        final FloatBuffer vertexData = mVertexData;
+        int vertex = 0;
+
+        for (int i = 0; i < mHighWaterMark; i++) {
+            float lifetime = mLifetime[i];
+            if (lifetime == 0f) {
+                continue;
+            }
+
+            float age = mAge[i] + deltaSeconds;
+            if (age >= lifetime) {
+                mLifetime[i] = 0f;
+                mFreeSlots[mFreeCount++] = i;
+                mAliveCount--;
+                continue;
+            }
+            mAge[i] = age;
+
+            float vx = mVelocityX[i] * damping;
+            float vy = mVelocityY[i] * damping - gravityDelta;
+            float vz = mVelocityZ[i] * damping;
+            mVelocityX[i] = vx;
+            mVelocityY[i] = vy;
+            mVelocityZ[i] = vz;
+
+            float x = mPositionX[i] + vx * deltaSeconds;
+            float y = mPositionY[i] + vy * deltaSeconds;
+            float z = mPositionZ[i] + vz * deltaSeconds;
+            mPositionX[i] = x;
+            mPositionY[i] = y;
+            mPositionZ[i] = z;
+
+            float fade = 1f - age / lifetime;
+            int offset = vertex * FLOATS_PER_VERTEX;
+            vertexData.put(offset, x);
+            vertexData.put(offset + 1, y);
+            vertexData.put(offset + 2, z);
+            vertexData.put(offset + 3, mColorR[i] * fade);
+            vertexData.put(offset + 4, mColorG[i] * fade);
+            vertexData.put(offset + 5, mColorB[i] * fade);
+            vertexData.put(offset + 6, 0f);
+            vertex++;
+        }
+
+        mVertexCount = vertex;
+        return vertex;
+    }
+
+    /**
+     * Kills every particle
+     */
+    public void clear() {
+        for (int i = 0; i < mHighWaterMark; i++) {
+            mLifetime[i] = 0f;
+        }
+        mHighWaterMark = 0;
+        mFreeCount = 0;
+        mAliveCount = 0;
+        mVertexCount = 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getAliveCount() {
+        return mAliveCount;
+    }
+
+    /**
+     * @return The number of vertices written by the last update
+     */
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+}
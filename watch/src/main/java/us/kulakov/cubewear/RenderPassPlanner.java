@@ -0,0 +1,153 @@
+package us.kulakov.cubewear;
+
+import android.opengl.EGL14;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Works out which framebuffer attachments and clears a frame actually needs, from the traits of
+ * the drawables that make up the scene.
+ *
+ * A single convex mesh drawn with back-face culling never overlaps itself, and screen-space
+ * overlays are drawn last without depth testing, so a scene made only of those renders the same
+ * without a depth buffer, unless something else has to be hidden behind that mesh. Stencil is
+ * only kept if someone asks for it, and MSAA only when there are 3D silhouette edges to smooth.
+ * Each attachment we drop is bandwidth that tile-based GPUs don't spend on every frame.
+ *
+ * Depth and stencil contents are discarded at the end of each frame only on ES 3 contexts, with
+ * glInvalidateFramebuffer. The Java bindings have no glDiscardFramebufferEXT, so on ES 2 contexts
+ * nothing is discarded, even where the driver supports EXT_discard_framebuffer. With a plan that
+ * has no depth or stencil attachment there is nothing to discard in the first place.
+ *
+ * Drawables must be added before the EGL config is chosen.
+ */
+public class RenderPassPlanner {
+    private static final String TAG = RenderPassPlanner.class.getSimpleName();
+
+    /** Drawn in screen space after the 3D scene, with depth testing disabled */
+    public static final int TRAIT_OVERLAY = 1;
+    /** The geometry is a closed convex mesh */
+    public static final int TRAIT_CONVEX = 1 << 1;
+    /** The geometry is drawn with GL_CULL_FACE enabled */
+    public static final int TRAIT_BACK_FACE_CULLED = 1 << 2;
+    /** Blended geometry whose result doesn't depend on draw order, and that doesn't write depth */
+    public static final int TRAIT_ORDER_INDEPENDENT = 1 << 3;
+    /** The drawable reads or writes the stencil buffer */
+    public static final int TRAIT_USES_STENCIL = 1 << 4;
+    /** The geometry can pass behind the scene's meshes, and is depth tested to be hidden by them */
+    public static final int TRAIT_DEPTH_TESTED = 1 << 5;
+
+    private static final int SELF_OCCLUSION_FREE = TRAIT_CONVEX | TRAIT_BACK_FACE_CULLED;
+
+    private int mMeshCount = 0;
+    private boolean mHasOccludedDrawable = false;
+    private boolean mHasSelfOccludingMesh = false;
+    private boolean mNeedsDepth = false;
+    private boolean mNeedsStencil = false;
+    private boolean mNeedsMsaa = false;
+
+    private boolean mCanInvalidateFramebuffer = false;
+    private final int[] mDiscardAttachments = new int[2];
+    private int mDiscardAttachmentCount = 0;
+
+    /**
+     * Registers a drawable that is part of every frame
+     * @param traits A combination of the TRAIT_ flags
+     */
+    public void addDrawable(int traits) {
+        if ((traits & TRAIT_USES_STENCIL) != 0) {
+            mNeedsStencil = true;
+        }
+        if ((traits & TRAIT_OVERLAY) != 0) {
+            return;
+        }
+
+        // Anything 3D has silhouette edges that MSAA smooths
+        mNeedsMsaa = true;
+
+        if ((traits & TRAIT_DEPTH_TESTED) != 0) {
+            mHasOccludedDrawable = true;
+        }
+        if ((traits & TRAIT_ORDER_INDEPENDENT) == 0) {
+            mMeshCount++;
+            if ((traits & SELF_OCCLUSION_FREE) != SELF_OCCLUSION_FREE) {
+                mHasSelfOccludingMesh = true;
+            }
+        }
+
+        // Order independent blending only makes draw order irrelevant, not occlusion
+        mNeedsDepth = mMeshCount > 1 || mHasSelfOccludingMesh || (mMeshCount > 0 && mHasOccludedDrawable);
+    }
+
+    public boolean needsDepth() {
+        return mNeedsDepth;
+    }
+
+    public boolean needsStencil() {
+        return mNeedsStencil;
+    }
+
+    /**
+     * @return The buffers to clear at the start of each frame
+     */
+    public int getClearMask() {
+        int mask = GLES20.GL_COLOR_BUFFER_BIT;
+        if (mNeedsDepth) {
+            mask |= GLES20.GL_DEPTH_BUFFER_BIT;
+        }
+        if (mNeedsStencil) {
+            mask |= GLES20.GL_STENCIL_BUFFER_BIT;
+        }
+        return mask;
+    }
+
+    /**
+     * @return The smallest EGL config attributes that can render the registered drawables
+     */
+    public int[] getEglConfigAttributes() {
+        return new int[] {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_DEPTH_SIZE, mNeedsDepth ? 16 : 0,
+                EGL14.EGL_STENCIL_SIZE, mNeedsStencil ? 8 : 0,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SAMPLE_BUFFERS, mNeedsMsaa ? 1 : 0,
+                EGL14.EGL_SAMPLES, mNeedsMsaa ? 2 : 0,
+                EGL14.EGL_NONE
+        };
+    }
+
+    /**
+     * Checks whether the current context can discard attachments at the end of a frame, which
+     * takes an ES 3 context. See the class comment.
+     */
+    public void onGlContextCreated() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mCanInvalidateFramebuffer = version != null && version.startsWith("OpenGL ES 3");
+
+        mDiscardAttachmentCount = 0;
+        if (mNeedsDepth) {
+            mDiscardAttachments[mDiscardAttachmentCount++] = GLES30.GL_DEPTH;
+        }
+        if (mNeedsStencil) {
+            mDiscardAttachments[mDiscardAttachmentCount++] = GLES30.GL_STENCIL;
+        }
+
+        Log.d(TAG, "depth = " + mNeedsDepth + ", stencil = " + mNeedsStencil + ", msaa = " + mNeedsMsaa
+                + ", invalidate = " + mCanInvalidateFramebuffer);
+    }
+
+    /**
+     * Tells the driver the depth and stencil contents aren't needed past this frame, so tiled
+     * GPUs can skip writing them back to memory. Call after the last draw of the frame.
+     */
+    public void discardAttachments() {
+        if (!mCanInvalidateFramebuffer || mDiscardAttachmentCount == 0) {
+            return;
+        }
+        GLES30.glInvalidateFramebuffer(GLES20.GL_FRAMEBUFFER, mDiscardAttachmentCount, mDiscardAttachments, 0);
+    }
+}
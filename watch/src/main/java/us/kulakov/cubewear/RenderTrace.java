@@ -0,0 +1,163 @@
+package us.kulakov.cubewear;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Named trace sections for the render loop.
+ *
+ * Every section is forwarded to {@link Trace} so it shows up in systrace/Perfetto next to the
+ * system's vsync and GPU tracks, and is also kept in an in-memory {@link TraceRingBuffer} that can
+ * be dumped as a Chrome trace JSON file with {@link #dumpChromeTrace(Context)}. Each dump holds
+ * the sections recorded since the previous one.
+ *
+ * Sections always go to {@link Trace}, which costs next to nothing while no capture is running.
+ * Recording into the ring buffer is a runtime switch, so traces can come from release builds in
+ * the field too. It's on from the start in debug builds, see {@link BuildConfig#TRACE_RENDER_LOOP},
+ * and can be flipped in any build with a broadcast:
+ * <pre>
+ * adb shell am broadcast -a us.kulakov.cubewear.action.SET_RENDER_TRACE --ez enabled true
+ * </pre>
+ * While off, a section costs one volatile read on top of Trace. Section names should be string
+ * constants so that call sites don't build strings.
+ *
+ * Sections must be begun and ended on the render thread, in nested order, and recording must only
+ * be switched there between sections.
+ */
+public final class RenderTrace {
+    private static final String TAG = RenderTrace.class.getSimpleName();
+
+    /** Broadcast action that switches recording, see {@link #EXTRA_ENABLED} */
+    public static final String ACTION_SET_RECORDING = "us.kulakov.cubewear.action.SET_RENDER_TRACE";
+    /** Boolean extra of {@link #ACTION_SET_RECORDING}, whether to record */
+    public static final String EXTRA_ENABLED = "enabled";
+
+    private static final int RING_BUFFER_CAPACITY = 8192;
+    private static final String TRACE_DIRECTORY = "traces";
+    private static final String TRACE_FILE_PREFIX = "render-";
+    private static final String TRACE_FILE_SUFFIX = ".json";
+    private static final int MAX_TRACE_FILES = 5;
+
+    private static volatile boolean sRecording = false;
+    // Created when recording first starts, so builds that never record don't pay for them
+    private static TraceRingBuffer sRingBuffer = null;
+    // Keeps file writes off the main thread, where the engine asks for dumps
+    private static Executor sWriteExecutor = null;
+
+    static {
+        setRecording(BuildConfig.TRACE_RENDER_LOOP);
+    }
+
+    private RenderTrace() {
+    }
+
+    /**
+     * Starts or stops recording sections for {@link #dumpChromeTrace(Context)}. Sections already
+     * recorded are kept until the next dump.
+     */
+    public static synchronized void setRecording(boolean recording) {
+        if (recording && sRingBuffer == null) {
+            sRingBuffer = new TraceRingBuffer(RING_BUFFER_CAPACITY);
+            sWriteExecutor = Executors.newSingleThreadExecutor();
+        }
+        sRecording = recording;
+    }
+
+    public static boolean isRecording() {
+        return sRecording;
+    }
+
+    public static void beginSection(String name) {
+        Trace.beginSection(name);
+        if (sRecording) {
+            sRingBuffer.begin(name, System.nanoTime());
+        }
+    }
+
+    public static void endSection() {
+        if (sRecording) {
+            sRingBuffer.end(System.nanoTime(), Process.myTid());
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Writes the sections recorded since the last dump to a Chrome trace JSON file in the app's
+     * files dir. The sections are taken out of the ring buffer right away and written on a
+     * background thread. Only the newest {@link #MAX_TRACE_FILES} traces are kept.
+     * @param context The context whose files dir receives the trace
+     */
+    public static synchronized void dumpChromeTrace(Context context) {
+        if (sRingBuffer == null) {
+            return;
+        }
+        final TraceRingBuffer.Snapshot snapshot = sRingBuffer.drain();
+        if (snapshot.size() == 0) {
+            return;
+        }
+        final File directory = new File(context.getFilesDir(), TRACE_DIRECTORY);
+        final int pid = Process.myPid();
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeChromeTrace(directory, snapshot, pid);
+            }
+        });
+    }
+
+    private static void writeChromeTrace(File directory, TraceRingBuffer.Snapshot snapshot, int pid) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            return;
+        }
+        File file = new File(directory, TRACE_FILE_PREFIX + System.currentTimeMillis() + TRACE_FILE_SUFFIX);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            try {
+                snapshot.writeChromeTrace(writer, pid);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Unable to write " + file, ex);
+            return;
+        }
+        Log.d(TAG, "Wrote render trace to " + file);
+        deleteOldTraces(directory);
+    }
+
+    private static void deleteOldTraces(File directory) {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        // Names only differ in a millisecond timestamp of the same length, so they sort by age
+        List<String> traces = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(TRACE_FILE_PREFIX) && name.endsWith(TRACE_FILE_SUFFIX)) {
+                traces.add(name);
+            }
+        }
+        Collections.sort(traces);
+        for (int i = 0; i < traces.size() - MAX_TRACE_FILES; i++) {
+            File file = new File(directory, traces.get(i));
+            if (!file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package us.kulakov.cubewear;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide, reference-counted cache of programs, meshes and textures, keyed by their content.
+ *
+ * Engines that exist at the same time, or that replace each other (the companion's picker
+ * preview creates several), get the same {@link GlResource} for the same content. The CPU-side
+ * data is loaded once per process, and the GL object is created once per {@link EglShareGroup}.
+ * Engines create their contexts through {@link EglShareContext}, so they all share one group and
+ * each object is compiled or uploaded once per process.
+ *
+ * Entries nobody references anymore are kept for {@link #UNUSED_GRACE_NANOS}, so an engine that
+ * replaces another one finds everything still there, and only dropped by
+ * {@link #trim(long, EglShareGroup)}.
+ *
+ * Resources must only be acquired and released through a {@link GlResourceManager}, which drops
+ * its references when its engine goes away.
+ */
+public class SharedGpuResourceCache {
+    private static final String TAG = SharedGpuResourceCache.class.getSimpleName();
+
+    /** How long an entry is kept after its last reference is dropped */
+    public static final long UNUSED_GRACE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final SharedGpuResourceCache sInstance =
+            new SharedGpuResourceCache(DirectBufferPool.getInstance());
+
+    /**
+     * Loads the bitmap of a cached texture, called only if the texture isn't cached yet
+     */
+    public interface BitmapLoader {
+        Bitmap load();
+    }
+
+    private final DirectBufferPool mBufferPool;
+    private final Map<ContentKey, Entry> mEntries = new HashMap<>();
+    private final Map<GlResource, Entry> mEntriesByResource = new IdentityHashMap<>();
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * @return The process-wide cache
+     */
+    public static SharedGpuResourceCache getInstance() {
+        return sInstance;
+    }
+
+    public SharedGpuResourceCache(DirectBufferPool bufferPool) {
+        mBufferPool = bufferPool;
+    }
+
+    synchronized GlProgram acquireProgram(String vertexShaderSource, String fragmentShaderSource) {
+        ContentKey key = new ContentKey("program", new String[] { vertexShaderSource, fragmentShaderSource });
+        Entry entry = lookup(key);
+        if (entry == null) {
+            entry = insert(key, new GlProgram(vertexShaderSource, fragmentShaderSource));
+        }
+        return (GlProgram) entry.mResource;
+    }
+
+    /**
+     * Like {@link #acquireProgram(String, String)}, but keyed by the asset names so that a cache
+     * hit doesn't have to read the shader sources at all
+     */
+    synchronized GlProgram acquireProgramFromAssets(Context context, String vertexShaderAsset,
+                                                    String fragmentShaderAsset) {
+        ContentKey key = new ContentKey("program-asset", new String[] { vertexShaderAsset, fragmentShaderAsset });
+        Entry entry = lookup(key);
+        if (entry == null) {
+            entry = insert(key, new GlProgram(
+                    Utils.readShaderSource(vertexShaderAsset, context),
+                    Utils.readShaderSource(fragmentShaderAsset, context)));
+        }
+        return (GlProgram) entry.mResource;
+    }
+
+    synchronized GlBuffer acquireBuffer(int target, int usage, float[] data) {
+        ContentKey key = new ContentKey("buffer-" + target + "-" + usage, data);
+        Entry entry = lookup(key);
+        if (entry == null) {
+            ByteBuffer buffer = mBufferPool.acquire(data.length * Constants.FLOAT_SIZE_BYTES);
+            buffer.asFloatBuffer().put(data);
+            entry = insert(new ContentKey(key.mKind, data.clone()), new GlBuffer(mBufferPool, target, usage, buffer));
+        }
+        return (GlBuffer) entry.mResource;
+    }
+
+    synchronized GlBuffer acquireBuffer(int target, int usage, short[] data) {
+        ContentKey key = new ContentKey("buffer-" + target + "-" + usage, data);
+        Entry entry = lookup(key);
+        if (entry == null) {
+            ByteBuffer buffer = mBufferPool.acquire(data.length * Constants.SHORT_SIZE_BYTES);
+            buffer.asShortBuffer().put(data);
+            entry = insert(new ContentKey(key.mKind, data.clone()), new GlBuffer(mBufferPool, target, usage, buffer));
+        }
+        return (GlBuffer) entry.mResource;
+    }
+
+    /**
+     * Returns the texture cached under the given name, loading its bitmap on a miss.
+     * The bitmap must not change afterwards, and is recycled when the texture is dropped.
+     */
+    synchronized GlTexture acquireTexture(String name, BitmapLoader loader) {
+        ContentKey key = new ContentKey("texture", name);
+        Entry entry = lookup(key);
+        if (entry == null) {
+            entry = insert(key, new GlTexture(loader.load()));
+        }
+        return (GlTexture) entry.mResource;
+    }
+
+    /**
+     * Drops a reference. After the last one the entry is kept for the grace period, then dropped
+     * by a later {@link #trim(long, EglShareGroup)}.
+     */
+    synchronized void release(GlResource resource) {
+        Entry entry = mEntriesByResource.get(resource);
+        if (entry == null) {
+            Log.w(TAG, "Releasing a resource that isn't cached: " + resource);
+            return;
+        }
+        if (--entry.mRefCount == 0) {
+            entry.mUnusedSinceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Drops the entries that haven't been referenced for the grace period, deleting their GL
+     * objects from the given share group and freeing their CPU-side data. Entries that still have
+     * objects in another live group are kept, for a trim with that group's context current or
+     * until the group goes away.
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @param currentGroup The group whose context is current on this thread, or null if none is
+     */
+    public synchronized void trim(long nowNanos, EglShareGroup currentGroup) {
+        evict(true, nowNanos, currentGroup);
+    }
+
+    /**
+     * Drops every entry that isn't referenced and has no GL objects in a live group, regardless
+     * of the grace period. For when no context is current.
+     */
+    public synchronized void evictUnused() {
+        evict(false, 0, null);
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private Entry lookup(ContentKey key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        // Unused entries within their grace period are revived as they are
+        mHitCount++;
+        entry.mRefCount++;
+        return entry;
+    }
+
+    private void evict(boolean keepRecent, long nowNanos, EglShareGroup currentGroup) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            GlResource resource = entry.mResource;
+            if (entry.mRefCount > 0 || (keepRecent && nowNanos - entry.mUnusedSinceNanos < UNUSED_GRACE_NANOS)
+                    || resource.isUploadedOutside(currentGroup)) {
+                continue;
+            }
+            iterator.remove();
+            mEntriesByResource.remove(resource);
+
+            resource.deleteFromGroup(currentGroup);
+            resource.releaseData();
+            if (resource instanceof GlTexture) {
+                ((GlTexture) resource).getBitmap().recycle();
+            }
+        }
+    }
+
+    private Entry insert(ContentKey key, GlResource resource) {
+        Entry entry = new Entry(resource);
+        mEntries.put(key, entry);
+        mEntriesByResource.put(resource, entry);
+        return entry;
+    }
+
+    private static final class Entry {
+        final GlResource mResource;
+        int mRefCount = 1;
+        long mUnusedSinceNanos = 0;
+
+        Entry(GlResource resource) {
+            mResource = resource;
+        }
+    }
+
+    /**
+     * Identifies a resource by what's in it. The content hash is computed once, and equal hashes
+     * are confirmed by comparing the content so collisions can't hand out the wrong resource.
+     */
+    private static final class ContentKey {
+        final String mKind;
+        final Object mContent;
+        final int mHash;
+
+        ContentKey(String kind, Object content) {
+            mKind = kind;
+            mContent = content;
+            mHash = 31 * kind.hashCode() + contentHash(content);
+        }
+
+        private static int contentHash(Object content) {
+            if (content instanceof float[]) {
+                return Arrays.hashCode((float[]) content);
+            } else if (content instanceof short[]) {
+                return Arrays.hashCode((short[]) content);
+            } else if (content instanceof Object[]) {
+                return Arrays.hashCode((Object[]) content);
+            }
+            return content.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) o;
+            if (mHash != other.mHash || !mKind.equals(other.mKind)) {
+                return false;
+            }
+            if (mContent instanceof float[] && other.mContent instanceof float[]) {
+                return Arrays.equals((float[]) mContent, (float[]) other.mContent);
+            } else if (mContent instanceof short[] && other.mContent instanceof short[]) {
+                return Arrays.equals((short[]) mContent, (short[]) other.mContent);
+            } else if (mContent instanceof Object[] && other.mContent instanceof Object[]) {
+                return Arrays.equals((Object[]) mContent, (Object[]) other.mContent);
+            }
+            return mContent.equals(other.mContent);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package us.kulakov.cubewear;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * Sparks trailing off a point on the cube, with a burst on every seconds tick.
+ * Particles live in world space and are drawn as one batch of additive point sprites.
+ *
+ * Sparks behind or inside the cube are hidden without a depth buffer: the vertex shader casts the
+ * line of sight to each spark against the cube's box in its model space, and drops the spark if
+ * the box comes first. Each spark is hidden or shown as a whole, which at their size doesn't show,
+ * and the scene keeps rendering without a depth attachment.
+ */
+public class SparksComponent {
+    public static final int PASS_TRAITS = RenderPassPlanner.TRAIT_ORDER_INDEPENDENT;
+
+    private static final int MAX_PARTICLES = 2048;
+    private static final float TRAIL_PARTICLES_PER_SECOND = 90f;
+    private static final int BURST_PARTICLES = 160;
+    private static final float MAX_DELTA_SECONDS = 0.1f;
+    private static final float POINT_SIZE = 16f;
+
+    public static final String mVertexShader =
+                    "uniform mat4 u_VPMatrix;" +
+                    "uniform mat4 u_WorldToOccluder;" +
+                    "uniform vec3 u_EyeInOccluder;" +
+                    "uniform float u_PointSize;" +
+                    "attribute vec4 a_Position;" +
+                    "attribute vec4 a_Color;" +
+                    "varying vec4 v_Color;" +
+                    "void main() {" +
+                    // Slab test of the segment from the eye to the spark against the [-1, 1] box
+                    "  vec3 d = (u_WorldToOccluder * a_Position).xyz - u_EyeInOccluder;" +
+                    "  d = mix(vec3(1e-5), d, step(1e-5, abs(d)));" +
+                    "  vec3 t0 = (vec3(-1.0) - u_EyeInOccluder) / d;" +
+                    "  vec3 t1 = (vec3(1.0) - u_EyeInOccluder) / d;" +
+                    "  vec3 tNear = min(t0, t1);" +
+                    "  vec3 tFar = max(t0, t1);" +
+                    "  float enter = max(max(tNear.x, tNear.y), tNear.z);" +
+                    "  float exit = min(min(tFar.x, tFar.y), tFar.z);" +
+                    "  gl_Position = u_VPMatrix * a_Position;" +
+                    "  if (enter <= exit && exit >= 0.0 && enter < 0.999) {" +
+                    // Past the far plane, clipped like any point outside the view volume
+                    "    gl_Position = vec4(0.0, 0.0, 2.0, 1.0);" +
+                    "  }" +
+                    "  gl_PointSize = u_PointSize / gl_Position.w;" +
+                    "  v_Color = a_Color;" +
+                    "}";
+
+    public static final String mFragmentShader =
+            "precision mediump float;" +
+                    "varying vec4 v_Color;" +
+                    "void main() {" +
+                    "  vec2 d = gl_PointCoord - vec2(0.5);" +
+                    "  gl_FragColor = v_Color * (1.0 - smoothstep(0.0, 0.25, dot(d, d)));" +
+                    "}";
+
+    private final ParticleSystem mParticles;
+    private final GlBuffer mVertexBuffer;
+    private final GlProgram mProgram;
+    private final Random mRandom = new Random();
+    private final float[] mWorldToOccluder = new float[16];
+    private final float[] mEyeInOccluder = new float[4];
+
+    private long mLastUpdateTime = 0;
+    private long mLastSecond = 0;
+    private float mTrailAccumulator = 0f;
+
+    public SparksComponent(GlResourceManager resources) {
+        mVertexBuffer = resources.createStreamBuffer(GLES20.GL_ARRAY_BUFFER,
+                MAX_PARTICLES * ParticleSystem.FLOATS_PER_VERTEX * Constants.FLOAT_SIZE_BYTES);
+        mParticles = new ParticleSystem(MAX_PARTICLES, mVertexBuffer.getData().asFloatBuffer());
+        mParticles.setForces(1.5f, 1.2f);
+
+        mProgram = resources.createProgram(mVertexShader, mFragmentShader);
+    }
+
+    /**
+     * Advances the sparks to the given time
+     * @param timeMillis The same wall clock time the rest of the frame is animated with
+     * @param emitterPosition The world space position the sparks come from
+     */
+    public void update(long timeMillis, float[] emitterPosition) {
+        RenderTrace.beginSection("SparksComponent.update");
+        float deltaSeconds = (timeMillis - mLastUpdateTime) / 1000f;
+        if (mLastUpdateTime == 0 || deltaSeconds < 0f || deltaSeconds > MAX_DELTA_SECONDS) {
+            deltaSeconds = mLastUpdateTime == 0 ? 0f : MAX_DELTA_SECONDS;
+        }
+        mLastUpdateTime = timeMillis;
+
+        float x = emitterPosition[0];
+        float y = emitterPosition[1];
+        float z = emitterPosition[2];
+
+        long second = timeMillis / 1000;
+        if (second != mLastSecond) {
+            mLastSecond = second;
+            for (int i = 0; i < BURST_PARTICLES; i++) {
+                emit(x, y, z, 1.2f, 0.6f + mRandom.nextFloat() * 0.6f);
+            }
+        }
+
+        mTrailAccumulator += deltaSeconds * TRAIL_PARTICLES_PER_SECOND;
+        while (mTrailAccumulator >= 1f) {
+            mTrailAccumulator -= 1f;
+            emit(x, y, z, 0.25f, 0.3f + mRandom.nextFloat() * 0.4f);
+        }
+
+        mParticles.update(deltaSeconds);
+        RenderTrace.endSection();
+    }
+
+    private void emit(float x, float y, float z, float speed, float lifetime) {
+        float vx = (mRandom.nextFloat() * 2f - 1f) * speed;
+        float vy = (mRandom.nextFloat() * 2f - 1f) * speed;
+        float vz = (mRandom.nextFloat() * 2f - 1f) * speed;
+        float heat = mRandom.nextFloat();
+        mParticles.emit(x, y, z, vx, vy, vz, lifetime, 1f, 0.5f + heat * 0.4f, heat * 0.3f);
+    }
+
+    /**
+     * Drops every live spark, e.g. when the animation stops
+     */
+    public void clear() {
+        mParticles.clear();
+        mLastUpdateTime = 0;
+        mTrailAccumulator = 0f;
+    }
+
+    /**
+     * @param vpMatrix The view projection matrix
+     * @param occluderModelMatrix The model matrix of the cube, whose model space box is [-1, 1]
+     * @param eyePosition The world space eye position, as x, y, z, 1
+     */
+    public void draw(float[] vpMatrix, float[] occluderModelMatrix, float[] eyePosition) {
+        int vertexCount = mParticles.getVertexCount();
+        if (vertexCount == 0) {
+            return;
+        }
+        RenderTrace.beginSection("SparksComponent.draw");
+        mProgram.use();
+
+        int stride = ParticleSystem.FLOATS_PER_VERTEX * Constants.FLOAT_SIZE_BYTES;
+        mVertexBuffer.update(vertexCount * stride);
+
+        int positionLoc = mProgram.getAttribLocation("a_Position");
+        GLES20.glVertexAttribPointer(positionLoc, ParticleSystem.POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, stride, 0);
+        GLES20.glEnableVertexAttribArray(positionLoc);
+
+        int colorLoc = mProgram.getAttribLocation("a_Color");
+        GLES20.glVertexAttribPointer(colorLoc, ParticleSystem.COLOR_DATA_SIZE, GLES20.GL_FLOAT, false, stride,
+                ParticleSystem.POSITION_DATA_SIZE * Constants.FLOAT_SIZE_BYTES);
+        GLES20.glEnableVertexAttribArray(colorLoc);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_VPMatrix"), 1, false, vpMatrix, 0);
+        GLES20.glUniform1f(mProgram.getUniformLocation("u_PointSize"), POINT_SIZE);
+
+        Matrix.invertM(mWorldToOccluder, 0, occluderModelMatrix, 0);
+        Matrix.multiplyMV(mEyeInOccluder, 0, mWorldToOccluder, 0, eyePosition, 0);
+        GLES20.glUniformMatrix4fv(mProgram.getUniformLocation("u_WorldToOccluder"), 1, false, mWorldToOccluder, 0);
+        GLES20.glUniform3fv(mProgram.getUniformLocation("u_EyeInOccluder"), 1, mEyeInOccluder, 0);
+
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, vertexCount);
+        GlStats.countDrawCall();
+
+        GLES20.glDisableVertexAttribArray(positionLoc);
+        GLES20.glDisableVertexAttribArray(colorLoc);
+        RenderTrace.endSection();
+    }
+}
@@ -0,0 +1,170 @@
+package us.kulakov.cubewear;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Fixed-size buffer of completed trace sections, overwriting the oldest ones once full.
+ * All storage is preallocated so recording doesn't allocate in the render loop.
+ *
+ * Timestamps come from {@link System#nanoTime()}, which is the monotonic clock used by atrace,
+ * so exported sections line up with a systrace/Perfetto capture of the same session.
+ */
+public class TraceRingBuffer {
+    private static final int MAX_DEPTH = 32;
+
+    private final String[] mNames;
+    private final long[] mStartTimes;
+    private final long[] mDurations;
+    private final int[] mThreadIds;
+    private int mNext = 0;
+    private int mCount = 0;
+
+    // Sections that have begun but not ended yet
+    private final String[] mOpenNames = new String[MAX_DEPTH];
+    private final long[] mOpenStartTimes = new long[MAX_DEPTH];
+    private int mDepth = 0;
+
+    public TraceRingBuffer(int capacity) {
+        mNames = new String[capacity];
+        mStartTimes = new long[capacity];
+        mDurations = new long[capacity];
+        mThreadIds = new int[capacity];
+    }
+
+    public synchronized void begin(String name, long timeNanos) {
+        if (mDepth < MAX_DEPTH) {
+            mOpenNames[mDepth] = name;
+            mOpenStartTimes[mDepth] = timeNanos;
+        }
+        mDepth++;
+    }
+
+    /**
+     * Completes the innermost open section
+     * @param threadId The thread the section ran on, for the exported trace
+     */
+    public synchronized void end(long timeNanos, int threadId) {
+        if (mDepth == 0) {
+            return;
+        }
+        mDepth--;
+        if (mDepth >= MAX_DEPTH) {
+            return;
+        }
+
+        mNames[mNext] = mOpenNames[mDepth];
+        mStartTimes[mNext] = mOpenStartTimes[mDepth];
+        mDurations[mNext] = timeNanos - mOpenStartTimes[mDepth];
+        mThreadIds[mNext] = threadId;
+        mOpenNames[mDepth] = null;
+
+        mNext = (mNext + 1) % mNames.length;
+        if (mCount < mNames.length) {
+            mCount++;
+        }
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Takes the buffered sections out, oldest first, and leaves the buffer empty, so the next
+     * drain only has what was recorded after this one. The copy is cheap compared to writing
+     * it out, which can then happen off the render thread.
+     */
+    public synchronized Snapshot drain() {
+        Snapshot snapshot = new Snapshot(mCount);
+        int first = (mNext - mCount + mNames.length) % mNames.length;
+        for (int i = 0; i < mCount; i++) {
+            int index = (first + i) % mNames.length;
+            snapshot.mNames[i] = mNames[index];
+            snapshot.mStartTimes[i] = mStartTimes[index];
+            snapshot.mDurations[i] = mDurations[index];
+            snapshot.mThreadIds[i] = mThreadIds[index];
+            mNames[index] = null;
+        }
+        clear();
+        return snapshot;
+    }
+
+    /**
+     * Sections taken out of the buffer by {@link #drain()}
+     */
+    public static final class Snapshot {
+        private final String[] mNames;
+        private final long[] mStartTimes;
+        private final long[] mDurations;
+        private final int[] mThreadIds;
+
+        private Snapshot(int size) {
+            mNames = new String[size];
+            mStartTimes = new long[size];
+            mDurations = new long[size];
+            mThreadIds = new int[size];
+        }
+
+        public int size() {
+            return mNames.length;
+        }
+
+        public String getName(int index) {
+            return mNames[index];
+        }
+
+        /**
+         * Writes the sections as a Chrome trace JSON object of "complete" events
+         * @param pid The process id to tag the events with
+         */
+        public void writeChromeTrace(Writer writer, int pid) throws IOException {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            for (int i = 0; i < mNames.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("\n{\"ph\":\"X\",\"cat\":\"render\",\"name\":\"");
+                writeEscaped(writer, mNames[i]);
+                writer.write("\",\"pid\":");
+                writer.write(Integer.toString(pid));
+                writer.write(",\"tid\":");
+                writer.write(Integer.toString(mThreadIds[i]));
+                writer.write(",\"ts\":");
+                writeMicros(writer, mStartTimes[i]);
+                writer.write(",\"dur\":");
+                writeMicros(writer, mDurations[i]);
+                writer.write('}');
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private static void writeMicros(Writer writer, long nanos) throws IOException {
+        writer.write(Long.toString(nanos / 1000));
+        writer.write('.');
+        String fraction = Long.toString(nanos % 1000);
+        for (int i = fraction.length(); i < 3; i++) {
+            writer.write('0');
+        }
+        writer.write(fraction);
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(' ');
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+}
@@ -33,22 +33,32 @@ public class Utils {
     }
 
     public static int loadShader(int type, String shaderCode){
+        RenderTrace.beginSection("Utils.loadShader");
         int shader = GLES20.glCreateShader(type);
 
         GLES20.glShaderSource(shader, shaderCode);
         GLES20.glCompileShader(shader);
+        RenderTrace.endSection();
 
         return shader;
     }
 
     public static int loadShader(int type, String filename, Context context) {
-        String shaderSource;
+        return loadShader(type, readShaderSource(filename, context));
+    }
+
+    /**
+     * Reads a shader's source from the assets
+     * @param filename The asset name of the shader
+     * @param context The asset's context
+     * @return The shader source
+     */
+    public static String readShaderSource(String filename, Context context) {
         try {
-            shaderSource = Utils.readStringAsset(context, filename);
+            return Utils.readStringAsset(context, filename);
         }
         catch(Exception ex) {
             throw new RuntimeException(ex.getMessage());
         }
-        return loadShader(type, shaderSource);
     }
 }
@@ -0,0 +1,117 @@
+package us.kulakov.cubewear;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AtlasAllocatorTest {
+    @Test
+    public void sameSizedRegions_fillShelvesWithoutOverlap() throws Exception {
+        AtlasAllocator allocator = new AtlasAllocator(256, 256, 1);
+        List<AtlasAllocator.Region> regions = new ArrayList<>();
+
+        // Two 113 pixel columns and six 37 pixel shelves fit
+        AtlasAllocator.Region region = new AtlasAllocator.Region(112, 36);
+        while (allocator.allocate(region)) {
+            regions.add(region);
+            region = new AtlasAllocator.Region(112, 36);
+        }
+
+        assertEquals(12, regions.size());
+        assertEquals(12, allocator.getRegionCount());
+        assertFalse(region.isAllocated());
+        assertNoOverlap(regions, 256, 256);
+    }
+
+    @Test
+    public void freedRegion_isReused() throws Exception {
+        AtlasAllocator allocator = new AtlasAllocator(64, 32, 0);
+        AtlasAllocator.Region first = new AtlasAllocator.Region(32, 32);
+        AtlasAllocator.Region second = new AtlasAllocator.Region(32, 32);
+        AtlasAllocator.Region third = new AtlasAllocator.Region(32, 32);
+
+        assertTrue(allocator.allocate(first));
+        assertTrue(allocator.allocate(second));
+        assertFalse(allocator.allocate(third));
+
+        allocator.free(first);
+        assertFalse(first.isAllocated());
+        assertTrue(allocator.allocate(third));
+        assertEquals(first.getX(), third.getX());
+        assertEquals(first.getY(), third.getY());
+    }
+
+    @Test
+    public void freedSpans_merge() throws Exception {
+        AtlasAllocator allocator = new AtlasAllocator(64, 64, 0);
+        AtlasAllocator.Region[] small = new AtlasAllocator.Region[4];
+        for (int i = 0; i < small.length; i++) {
+            small[i] = new AtlasAllocator.Region(16, 16);
+            assertTrue(allocator.allocate(small[i]));
+        }
+        // Keep a second shelf so the first one doesn't simply go away
+        AtlasAllocator.Region other = new AtlasAllocator.Region(64, 16);
+        assertTrue(allocator.allocate(other));
+
+        allocator.free(small[1]);
+        allocator.free(small[3]);
+        allocator.free(small[2]);
+
+        AtlasAllocator.Region wide = new AtlasAllocator.Region(48, 16);
+        assertTrue(allocator.allocate(wide));
+        assertEquals(16, wide.getX());
+        assertEquals(small[0].getY(), wide.getY());
+    }
+
+    @Test
+    public void emptyTopShelf_isReclaimedForOtherHeights() throws Exception {
+        AtlasAllocator allocator = new AtlasAllocator(32, 32, 0);
+        AtlasAllocator.Region shortRegion = new AtlasAllocator.Region(32, 8);
+        assertTrue(allocator.allocate(shortRegion));
+        allocator.free(shortRegion);
+
+        AtlasAllocator.Region fullHeight = new AtlasAllocator.Region(32, 32);
+        assertTrue(allocator.allocate(fullHeight));
+        assertEquals(0, fullHeight.getY());
+    }
+
+    @Test
+    public void randomChurn_neverOverlaps() throws Exception {
+        AtlasAllocator allocator = new AtlasAllocator(256, 256, 1);
+        Random random = new Random(42);
+        List<AtlasAllocator.Region> live = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                allocator.free(live.remove(random.nextInt(live.size())));
+            } else {
+                AtlasAllocator.Region region =
+                        new AtlasAllocator.Region(8 + random.nextInt(64), 8 + random.nextInt(32));
+                if (allocator.allocate(region)) {
+                    live.add(region);
+                }
+            }
+        }
+
+        assertEquals(live.size(), allocator.getRegionCount());
+        assertNoOverlap(live, 256, 256);
+    }
+
+    private static void assertNoOverlap(List<AtlasAllocator.Region> regions, int width, int height) {
+        for (int i = 0; i < regions.size(); i++) {
+            AtlasAllocator.Region a = regions.get(i);
+            assertTrue(a.getX() >= 0 && a.getX() + a.getWidth() <= width);
+            assertTrue(a.getY() >= 0 && a.getY() + a.getHeight() <= height);
+            for (int j = i + 1; j < regions.size(); j++) {
+                AtlasAllocator.Region b = regions.get(j);
+                boolean separate = a.getX() + a.getWidth() <= b.getX() || b.getX() + b.getWidth() <= a.getX()
+                        || a.getY() + a.getHeight() <= b.getY() || b.getY() + b.getHeight() <= a.getY();
+                assertTrue("Regions " + i + " and " + j + " overlap", separate);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package us.kulakov.cubewear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest {
+    private static final long VSYNC_NANOS = 16666667L;
+    private static final long START_NANOS = 1000000000L;
+
+    @Test
+    public void steadyVsync_predictsTwoVsyncsAhead() throws Exception {
+        FramePacer pacer = new FramePacer(null);
+        assertFalse(pacer.hasPrediction());
+
+        for (int i = 0; i < 10; i++) {
+            pacer.onVsync(START_NANOS + i * VSYNC_NANOS);
+        }
+
+        assertTrue(pacer.hasPrediction());
+        assertEquals(START_NANOS + 11 * VSYNC_NANOS, pacer.getPredictedPresentTimeNanos());
+        assertEquals(0, pacer.getMissedVsyncCount());
+    }
+
+    @Test
+    public void skippedCallbacks_countAsMissedVsyncs() throws Exception {
+        FramePacer pacer = new FramePacer(null);
+
+        pacer.onVsync(START_NANOS);
+        pacer.onVsync(START_NANOS + VSYNC_NANOS);
+        // A long frame swallows two vsyncs
+        pacer.onVsync(START_NANOS + 4 * VSYNC_NANOS);
+        pacer.onVsync(START_NANOS + 5 * VSYNC_NANOS);
+
+        assertEquals(2, pacer.getMissedVsyncCount());
+        assertEquals(VSYNC_NANOS, pacer.getVsyncIntervalNanos());
+    }
+
+    @Test
+    public void slowerDisplay_adaptsInterval() throws Exception {
+        FramePacer pacer = new FramePacer(null);
+        long interval = 20000000L; // 50 Hz
+
+        for (int i = 0; i < 100; i++) {
+            pacer.onVsync(START_NANOS + i * interval);
+        }
+
+        assertTrue(Math.abs(pacer.getVsyncIntervalNanos() - interval) < 100000L);
+        assertEquals(0, pacer.getMissedVsyncCount());
+    }
+}
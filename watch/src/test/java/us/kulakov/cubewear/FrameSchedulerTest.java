@@ -0,0 +1,143 @@
+package us.kulakov.cubewear;
+
+import android.view.Choreographer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameSchedulerTest {
+    private static final long VSYNC_NANOS = 16666667L;
+    private static final long START_NANOS = 1000000000L;
+
+    private final FakeChoreographer mChoreographer = new FakeChoreographer();
+    private final FramePacer mPacer = new FramePacer(mChoreographer);
+    private final FakeEngine mEngine = new FakeEngine();
+    private final FrameScheduler mScheduler = new FrameScheduler(mPacer, mEngine);
+    private long mVsyncNanos = START_NANOS;
+
+    @Test
+    public void interactive_drawsEveryVsyncAtPredictedTime() throws Exception {
+        mScheduler.onVisibilityChanged(true);
+
+        for (int i = 0; i < 100; i++) {
+            long vsync = mVsyncNanos;
+            vsync();
+            assertEquals(i + 1, mEngine.mFrameCount);
+            if (i > 0) {
+                // Sampled on the same vsync, before the frame was drawn
+                assertEquals(vsync + 2 * VSYNC_NANOS, mEngine.mLastFrameTimeNanos);
+            }
+        }
+        assertEquals(0, mPacer.getMissedVsyncCount());
+        // The pacer and the next frame, nothing else
+        assertEquals(2, mChoreographer.mCallbacks.size());
+    }
+
+    @Test
+    public void ambient_drawsOnlyOnRequest() throws Exception {
+        mScheduler.onVisibilityChanged(true);
+        for (int i = 0; i < 10; i++) {
+            vsync();
+        }
+
+        mScheduler.onAmbientModeChanged(true);
+        assertFalse(mPacer.isRunning());
+        for (int i = 0; i < 10; i++) {
+            vsync();
+        }
+        assertEquals(11, mEngine.mFrameCount);
+        assertTrue(mChoreographer.mCallbacks.isEmpty());
+
+        mScheduler.onTimeTick();
+        mScheduler.onTimeTick();
+        vsync();
+        vsync();
+        assertEquals(12, mEngine.mFrameCount);
+
+        mScheduler.onAmbientModeChanged(false);
+        for (int i = 0; i < 10; i++) {
+            vsync();
+        }
+        assertEquals(22, mEngine.mFrameCount);
+        assertTrue(mPacer.isRunning());
+    }
+
+    @Test
+    public void hidden_stopsAfterPendingFrame() throws Exception {
+        mScheduler.onVisibilityChanged(true);
+        for (int i = 0; i < 10; i++) {
+            vsync();
+        }
+
+        mScheduler.onVisibilityChanged(false);
+        assertFalse(mPacer.isRunning());
+        for (int i = 0; i < 10; i++) {
+            vsync();
+        }
+
+        assertEquals(11, mEngine.mFrameCount);
+        assertTrue(mChoreographer.mCallbacks.isEmpty());
+        assertFalse(mPacer.hasPrediction());
+    }
+
+    private void vsync() {
+        mChoreographer.doFrame(mVsyncNanos);
+        mVsyncNanos += VSYNC_NANOS;
+    }
+
+    /**
+     * Runs the callbacks posted before each vsync in order, like Choreographer
+     */
+    private static class FakeChoreographer implements FramePacer.VsyncSource {
+        final List<Choreographer.FrameCallback> mCallbacks = new ArrayList<>();
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            mCallbacks.add(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            while (mCallbacks.remove(callback)) {
+            }
+        }
+
+        void doFrame(long frameTimeNanos) {
+            List<Choreographer.FrameCallback> callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+            for (Choreographer.FrameCallback callback : callbacks) {
+                callback.doFrame(frameTimeNanos);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the way Gles2WatchFaceService does, one draw per vsync however often it's
+     * requested, and draws the way CubeWatchFace's engine does
+     */
+    private class FakeEngine implements FrameScheduler.Host, Choreographer.FrameCallback {
+        boolean mDrawRequested = false;
+        int mFrameCount = 0;
+        long mLastFrameTimeNanos = 0;
+
+        @Override
+        public void invalidate() {
+            if (!mDrawRequested) {
+                mDrawRequested = true;
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDrawRequested = false;
+            mFrameCount++;
+            mLastFrameTimeNanos = mScheduler.getFrameTimeNanos(frameTimeNanos);
+            mScheduler.onFrameDrawn();
+        }
+    }
+}
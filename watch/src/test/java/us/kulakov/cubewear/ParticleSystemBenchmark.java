@@ -0,0 +1,118 @@
+package us.kulakov.cubewear;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Steady-state cost of {@link ParticleSystem} at the particle counts we budget for.
+ * Runs on the desktop JVM, which reports per-thread allocated bytes.
+ */
+public class ParticleSystemBenchmark {
+    private static final float FRAME_SECONDS = 1f / 60f;
+    private static final int WARMUP_FRAMES = 600;
+    private static final int MEASURED_WINDOWS = 5;
+    private static final int FRAMES_PER_WINDOW = 500;
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void steadyState_1000_doesNotAllocate() throws Exception {
+        runSteadyState(1000);
+    }
+
+    @Test
+    public void steadyState_2500_doesNotAllocate() throws Exception {
+        runSteadyState(2500);
+    }
+
+    @Test
+    public void steadyState_5000_doesNotAllocate() throws Exception {
+        runSteadyState(5000);
+    }
+
+    @Test
+    public void emit_respectsBudget() throws Exception {
+        ParticleSystem particles = createParticleSystem(16);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(emit(particles));
+        }
+        assertFalse(emit(particles));
+        assertEquals(16, particles.getAliveCount());
+
+        // Everything dies, and the freed slots are reused
+        particles.update(10f);
+        assertEquals(0, particles.getAliveCount());
+        assertEquals(0, particles.getVertexCount());
+        assertTrue(emit(particles));
+        assertEquals(1, particles.update(FRAME_SECONDS));
+    }
+
+    private void runSteadyState(int particleCount) {
+        ParticleSystem particles = createParticleSystem(particleCount);
+        particles.setForces(1.5f, 1.2f);
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame(particles);
+        }
+
+        // The first reading can include one-off allocations of the measurement path itself, so
+        // one window is measured and thrown away
+        measureWindow(particles);
+
+        // Every window has to be clean, an allocation now and then is still a leak per frame
+        long allocated = 0;
+        for (int window = 0; window < MEASURED_WINDOWS; window++) {
+            allocated = Math.max(allocated, measureWindow(particles));
+        }
+
+        assertEquals(particles.getAliveCount(), particles.getVertexCount());
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * @return The bytes allocated by the current thread over one window of frames
+     */
+    private long measureWindow(ParticleSystem particles) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Reading the counter can allocate by itself, measure that first
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < FRAMES_PER_WINDOW; i++) {
+            frame(particles);
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - before - overhead;
+    }
+
+    // Keeps the system full, the way a continuous emitter at its budget would
+    private void frame(ParticleSystem particles) {
+        while (emit(particles)) {
+            // Refill every slot freed by the last update
+        }
+        particles.update(FRAME_SECONDS);
+    }
+
+    private boolean emit(ParticleSystem particles) {
+        return particles.emit(0f, 0f, 0f,
+                mRandom.nextFloat() - 0.5f, mRandom.nextFloat(), mRandom.nextFloat() - 0.5f,
+                0.2f + mRandom.nextFloat(), 1f, 0.7f, 0.2f);
+    }
+
+    private static ParticleSystem createParticleSystem(int capacity) {
+        FloatBuffer vertexData = ByteBuffer
+                .allocateDirect(capacity * ParticleSystem.FLOATS_PER_VERTEX * Constants.FLOAT_SIZE_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        return new ParticleSystem(capacity, vertexData);
+    }
+}
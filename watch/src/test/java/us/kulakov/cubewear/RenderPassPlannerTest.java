@@ -0,0 +1,46 @@
+package us.kulakov.cubewear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RenderPassPlannerTest {
+    @Test
+    public void convexMeshWithOverlay_needsNoDepth() throws Exception {
+        RenderPassPlanner planner = new RenderPassPlanner();
+        planner.addDrawable(Cube.PASS_TRAITS);
+        planner.addDrawable(FrameRateComponent.PASS_TRAITS);
+
+        assertFalse(planner.needsDepth());
+    }
+
+    @Test
+    public void shippedScene_needsNoDepth() throws Exception {
+        // The sparks hide behind the cube in their own shader
+        RenderPassPlanner planner = new RenderPassPlanner();
+        planner.addDrawable(Cube.PASS_TRAITS);
+        planner.addDrawable(SparksComponent.PASS_TRAITS);
+        planner.addDrawable(FrameRateComponent.PASS_TRAITS);
+        planner.addDrawable(ComplicationLayer.PASS_TRAITS);
+
+        assertFalse(planner.needsDepth());
+    }
+
+    @Test
+    public void depthTestedParticles_keepDepthForTheMesh() throws Exception {
+        // Added before the mesh, the plan mustn't depend on the order
+        RenderPassPlanner planner = new RenderPassPlanner();
+        planner.addDrawable(RenderPassPlanner.TRAIT_ORDER_INDEPENDENT | RenderPassPlanner.TRAIT_DEPTH_TESTED);
+        planner.addDrawable(Cube.PASS_TRAITS);
+
+        assertTrue(planner.needsDepth());
+    }
+
+    @Test
+    public void depthTestedWithoutMeshes_needsNoDepth() throws Exception {
+        RenderPassPlanner planner = new RenderPassPlanner();
+        planner.addDrawable(RenderPassPlanner.TRAIT_ORDER_INDEPENDENT | RenderPassPlanner.TRAIT_DEPTH_TESTED);
+
+        assertFalse(planner.needsDepth());
+    }
+}
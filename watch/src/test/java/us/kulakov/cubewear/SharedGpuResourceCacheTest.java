@@ -0,0 +1,78 @@
+package us.kulakov.cubewear;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SharedGpuResourceCacheTest {
+    private static final float[] VERTICES = { 0f, 1f, 2f, 3f, 4f, 5f };
+
+    @Test
+    public void sameContent_sharesResource() throws Exception {
+        SharedGpuResourceCache cache = new SharedGpuResourceCache(new DirectBufferPool());
+
+        GlBuffer first = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        GlBuffer second = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES.clone());
+
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void differentContent_getsOwnResource() throws Exception {
+        SharedGpuResourceCache cache = new SharedGpuResourceCache(new DirectBufferPool());
+
+        float[] other = VERTICES.clone();
+        other[5] = 6f;
+        GlBuffer first = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        GlBuffer second = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, other);
+        GlBuffer third = cache.acquireBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+
+        assertNotSame(first, second);
+        assertNotSame(first, third);
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void lastRelease_keepsEntryForGracePeriod() throws Exception {
+        SharedGpuResourceCache cache = new SharedGpuResourceCache(new DirectBufferPool());
+
+        GlBuffer first = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        cache.release(first);
+        assertEquals(1, cache.size());
+
+        // A replacement engine gets the same resource back
+        GlBuffer second = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        assertSame(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // Still referenced, so never trimmed
+        cache.trim(System.nanoTime() + 2 * SharedGpuResourceCache.UNUSED_GRACE_NANOS, null);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void trimAfterGracePeriod_evictsAndReturnsData() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool();
+        SharedGpuResourceCache cache = new SharedGpuResourceCache(pool);
+
+        GlBuffer first = cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+
+        cache.release(first);
+        cache.release(first);
+        cache.trim(System.nanoTime(), null);
+        assertEquals(1, cache.size());
+        cache.trim(System.nanoTime() + SharedGpuResourceCache.UNUSED_GRACE_NANOS, null);
+        assertEquals(0, cache.size());
+
+        // The pooled data buffer is handed out again instead of allocating a new one
+        cache.acquireBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, VERTICES);
+        assertEquals(1, pool.getAllocationCount());
+    }
+}
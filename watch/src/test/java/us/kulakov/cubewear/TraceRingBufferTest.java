@@ -0,0 +1,68 @@
+package us.kulakov.cubewear;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TraceRingBufferTest {
+    @Test
+    public void nestedSections_completeInnermostFirst() throws Exception {
+        TraceRingBuffer buffer = new TraceRingBuffer(8);
+        buffer.begin("outer", 1000);
+        buffer.begin("inner", 2000);
+        buffer.end(3000, 7);
+        buffer.end(4000, 7);
+
+        TraceRingBuffer.Snapshot snapshot = buffer.drain();
+        assertEquals(2, snapshot.size());
+        assertEquals("inner", snapshot.getName(0));
+        assertEquals("outer", snapshot.getName(1));
+    }
+
+    @Test
+    public void full_overwritesOldestSections() throws Exception {
+        TraceRingBuffer buffer = new TraceRingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.begin("section" + i, i * 10);
+            buffer.end(i * 10 + 5, 1);
+        }
+
+        assertEquals(3, buffer.size());
+        TraceRingBuffer.Snapshot snapshot = buffer.drain();
+        assertEquals("section2", snapshot.getName(0));
+        assertEquals("section3", snapshot.getName(1));
+        assertEquals("section4", snapshot.getName(2));
+    }
+
+    @Test
+    public void drain_leavesOnlyNewerSectionsForTheNextDump() throws Exception {
+        TraceRingBuffer buffer = new TraceRingBuffer(4);
+        buffer.begin("first", 0);
+        buffer.end(1, 1);
+        assertEquals(1, buffer.drain().size());
+        assertEquals(0, buffer.size());
+
+        buffer.begin("second", 2);
+        buffer.end(3, 1);
+        TraceRingBuffer.Snapshot snapshot = buffer.drain();
+        assertEquals(1, snapshot.size());
+        assertEquals("second", snapshot.getName(0));
+    }
+
+    @Test
+    public void chromeTrace_writesCompleteEventsInMicroseconds() throws Exception {
+        TraceRingBuffer buffer = new TraceRingBuffer(4);
+        buffer.begin("Cube.\"draw\"", 1234567);
+        buffer.end(1240067, 42);
+
+        StringWriter writer = new StringWriter();
+        buffer.drain().writeChromeTrace(writer, 99);
+
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+                + "{\"ph\":\"X\",\"cat\":\"render\",\"name\":\"Cube.\\\"draw\\\"\",\"pid\":99,\"tid\":42,"
+                + "\"ts\":1234.567,\"dur\":5.500}\n"
+                + "]}\n", writer.toString());
+    }
+}